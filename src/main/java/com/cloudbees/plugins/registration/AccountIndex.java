@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUserWithAccountApiKey;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import org.acegisecurity.Authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An index from CloudBees account name to the credentials that own the account, as seen by the
+ * {@link CloudBeesWidget}: the credentials of Jenkins plus those of the current user.
+ *
+ * <p>
+ * The credentials are looked up again straight away when the system or user credentials store is saved, or when any
+ * other credentials provider that saves its own configuration does. As not every provider does, the credentials of
+ * an index are also looked up again once it is older than a minute, which can be tuned with the system property
+ * {@code com.cloudbees.plugins.registration.AccountIndex.revalidateSeconds}; the index is only replaced, and the
+ * widgets told, if that finds different credentials. When a refresh changes the accounts of a credential, the
+ * indexes that hold the credential are recomputed from the credentials they already know.
+ */
+public final class AccountIndex {
+
+    /**
+     * How long the credentials of an index are trusted before they are looked up again.
+     */
+    private static final long REVALIDATE_MILLIS = TimeUnit.SECONDS.toMillis(
+            Integer.getInteger(AccountIndex.class.getName() + ".revalidateSeconds", 60));
+
+    /**
+     * The indexes, keyed by the name of the authentication they were built for.
+     */
+    private static final ConcurrentMap<String, Index> indexes = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .<String, Index>build()
+            .asMap();
+
+    /**
+     * Changes whenever the accounts of any index may have changed.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private AccountIndex() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the names of the accounts visible to an authentication.
+     *
+     * @param authentication the authentication.
+     * @return the account names, sorted.
+     */
+    public static List<String> getAccountNames(Authentication authentication) {
+        return get(authentication).accountNames;
+    }
+
+    /**
+     * Finds the credential that owns an account.
+     *
+     * @param accountName    the account name.
+     * @param authentication the authentication.
+     * @return the credential or {@code null} if none of the visible credentials owns the account.
+     */
+    public static CloudBeesUser findUser(String accountName, Authentication authentication) {
+        Index index = get(authentication);
+        List<CloudBeesUser> owners = index.owners.get(accountName);
+        if (owners != null) {
+            return owners.get(0);
+        }
+        // the widget has always matched on the end of the name
+        for (CloudBeesUser user : index.users) {
+            List<CloudBeesAccount> accounts = user.getAccounts();
+            if (accounts != null) {
+                for (CloudBeesAccount account : accounts) {
+                    if (accountName.endsWith(account.getName())) {
+                        return user;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops all the indexes, they will be rebuilt from the credentials stores when next needed.
+     */
+    public static void invalidate() {
+        indexes.clear();
+        generation.incrementAndGet();
+        StatusEvents.publish(null);
+    }
+
+    /**
+     * Returns the generation of the indexes, which changes whenever the accounts of any index may have changed.
+     *
+     * @return the generation.
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Looks up the credentials of every index again now, rather than once it is due.
+     */
+    static void revalidate() {
+        for (Map.Entry<String, Index> entry : indexes.entrySet()) {
+            revalidate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static Index get(Authentication authentication) {
+        String key = authentication == null ? "" : authentication.getName();
+        Index index = indexes.get(key);
+        if (index == null) {
+            index = new Index(authentication, lookup(authentication), System.currentTimeMillis());
+            Index existing = indexes.putIfAbsent(key, index);
+            if (existing != null) {
+                index = existing;
+            }
+        } else if (System.currentTimeMillis() - index.lookedUp > REVALIDATE_MILLIS) {
+            index = revalidate(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Looks up the credentials of an index again, replacing the index if they are no longer the same.
+     */
+    private static Index revalidate(String key, Index index) {
+        List<CloudBeesUser> current = new ArrayList<CloudBeesUser>(lookup(index.authentication));
+        long now = System.currentTimeMillis();
+        if (sameInstances(index.users, current)) {
+            Index revalidated = new Index(index.authentication, index.users, now);
+            return indexes.replace(key, index, revalidated) ? revalidated : index;
+        }
+        Index replacement = new Index(index.authentication, current, now);
+        if (!indexes.replace(key, index, replacement)) {
+            // someone else got there first
+            return index;
+        }
+        generation.incrementAndGet();
+        StatusEvents.publish(null);
+        return replacement;
+    }
+
+    private static Set<CloudBeesUser> lookup(Authentication authentication) {
+        Set<CloudBeesUser> users = new LinkedHashSet<CloudBeesUser>();
+        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUserWithAccountApiKey.class));
+        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class));
+        if (authentication != null) {
+            users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class, authentication));
+        }
+        return users;
+    }
+
+    /**
+     * Drops the index of a user that was saved, if its credentials are no longer the ones it was built from.
+     */
+    private static void userSaved(User user) {
+        Index index = indexes.get(user.getId());
+        if (index == null) {
+            return;
+        }
+        List<CloudBeesUser> current;
+        try {
+            current = new ArrayList<CloudBeesUser>(lookup(user.impersonate()));
+        } catch (RuntimeException e) {
+            // cannot tell, assume the worst
+            current = null;
+        }
+        if (current == null || !sameInstances(index.users, current)) {
+            indexes.remove(user.getId(), index);
+            generation.incrementAndGet();
+            StatusEvents.publish(null);
+        }
+    }
+
+    private static boolean sameInstances(List<CloudBeesUser> a, List<CloudBeesUser> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            // an edited store is saved with new instances
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes the indexes that hold a credential whose accounts changed.
+     */
+    private static void accountsChanged(CloudBeesUser user) {
+        for (Map.Entry<String, Index> entry : indexes.entrySet()) {
+            Index index = entry.getValue();
+            if (index.contains(user)) {
+                indexes.replace(entry.getKey(), index, new Index(index.authentication, index.users, index.lookedUp));
+            }
+        }
+        generation.incrementAndGet();
+        StatusEvents.publish(null);
+    }
+
+    /**
+     * An immutable index of a set of credentials.
+     */
+    private static final class Index {
+        private final Authentication authentication;
+        private final List<CloudBeesUser> users;
+        private final Map<String, List<CloudBeesUser>> owners;
+        private final List<String> accountNames;
+        /**
+         * When the credentials were looked up.
+         */
+        private final long lookedUp;
+
+        private Index(Authentication authentication, Iterable<? extends CloudBeesUser> users, long lookedUp) {
+            this.authentication = authentication;
+            this.lookedUp = lookedUp;
+            List<CloudBeesUser> list = new ArrayList<CloudBeesUser>();
+            Map<String, List<CloudBeesUser>> owners = new TreeMap<String, List<CloudBeesUser>>();
+            for (CloudBeesUser user : users) {
+                list.add(user);
+                List<CloudBeesAccount> accounts = user.getAccounts();
+                if (accounts == null) {
+                    continue;
+                }
+                for (CloudBeesAccount account : accounts) {
+                    List<CloudBeesUser> accountOwners = owners.get(account.getName());
+                    if (accountOwners == null) {
+                        accountOwners = new ArrayList<CloudBeesUser>(1);
+                        owners.put(account.getName(), accountOwners);
+                    }
+                    accountOwners.add(user);
+                }
+            }
+            this.users = Collections.unmodifiableList(list);
+            this.owners = Collections.unmodifiableMap(owners);
+            this.accountNames = Collections.unmodifiableList(new ArrayList<String>(owners.keySet()));
+        }
+
+        private boolean contains(CloudBeesUser user) {
+            for (CloudBeesUser u : users) {
+                if (u == user) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Drops the indexes when a credentials store they are built from has been saved with different credentials.
+     * Users are saved for many other reasons, e.g. when they log in, so the index of a user is only dropped if the
+     * credentials it would be built from now differ from those it holds. Providers that do not save their
+     * credentials as a {@link Saveable} of their own are caught up with by the periodic revalidation.
+     */
+    @Extension
+    public static class StoreListener extends SaveableListener {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                invalidate();
+            } else if (o instanceof CredentialsProvider) {
+                // some other provider that keeps its own configuration, it may hold credentials of Jenkins
+                revalidate();
+            } else if (o instanceof User) {
+                userSaved((User) o);
+            }
+        }
+    }
+
+    /**
+     * Keeps the indexes up to date as the accounts of credentials are refreshed.
+     */
+    @Extension
+    public static class AccountsListener extends CloudBeesUserListener {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onAccountsChanged(CloudBeesUser user, List<CloudBeesAccount> previous,
+                                      List<CloudBeesAccount> current) {
+            accountsChanged(user);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.model.PageDecorator;
+import jenkins.model.Jenkins;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out how long the derived fields of a {@link CloudBeesUserImpl} stay fresh. The time to live of a credential
+ * whose profile and accounts do not change is stretched towards the configured maximum with every refresh, while a
+ * change or a rejected login brings it back to the configured minimum.
+ *
+ * <p>
+ * The bounds are set in the global configuration, see {@link Reminder#getMinRefreshSeconds()} and
+ * {@link Reminder#getMaxRefreshSeconds()}.
+ */
+final class AdaptiveTtl {
+
+    /**
+     * The default minimum time to live.
+     */
+    static final int DEFAULT_MIN_SECONDS = 360;
+
+    /**
+     * The default maximum time to live.
+     */
+    static final int DEFAULT_MAX_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    /**
+     * How much the time to live grows after a refresh that found nothing new.
+     */
+    private static final double GROWTH = 1.5;
+
+    /**
+     * The global configuration, once it has been found.
+     */
+    private static volatile Reminder reminder;
+
+    private AdaptiveTtl() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the minimum time to live.
+     *
+     * @return the minimum time to live in milliseconds.
+     */
+    static long minMillis() {
+        Reminder reminder = reminder();
+        int seconds = reminder == null ? DEFAULT_MIN_SECONDS : reminder.getMinRefreshSeconds();
+        return TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    /**
+     * Returns the maximum time to live.
+     *
+     * @return the maximum time to live in milliseconds, never less than the minimum.
+     */
+    static long maxMillis() {
+        Reminder reminder = reminder();
+        int seconds = reminder == null ? DEFAULT_MAX_SECONDS : reminder.getMaxRefreshSeconds();
+        return Math.max(minMillis(), TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    /**
+     * Returns the global configuration, if it can be looked up yet. Credentials are loaded, and their time to live
+     * computed, before the extensions are, so this must not force the extension list nor fail when it is empty.
+     *
+     * @return the configuration or {@code null} to use the defaults.
+     */
+    private static Reminder reminder() {
+        Reminder reminder = AdaptiveTtl.reminder;
+        if (reminder != null) {
+            return reminder;
+        }
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null || jenkins.getInitLevel().compareTo(InitMilestone.EXTENSIONS_AUGMENTED) < 0) {
+            return null;
+        }
+        for (PageDecorator d : PageDecorator.all()) {
+            if (d instanceof Reminder) {
+                // a singleton for the life of Jenkins, no need to search the extension list on every render
+                AdaptiveTtl.reminder = (Reminder) d;
+                return (Reminder) d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Brings a time to live within the configured bounds, which may have changed since it was computed.
+     *
+     * @param ttlMillis the time to live, {@code 0} if none has been computed yet.
+     * @return the time to live in milliseconds.
+     */
+    static long clamp(long ttlMillis) {
+        return Math.min(maxMillis(), Math.max(minMillis(), ttlMillis));
+    }
+
+    /**
+     * Computes the time to live after a successful refresh.
+     *
+     * @param ttlMillis the current time to live.
+     * @param changed   whether the refresh found any difference.
+     * @return the new time to live in milliseconds.
+     */
+    static long next(long ttlMillis, boolean changed) {
+        if (changed) {
+            return minMillis();
+        }
+        return clamp((long) (clamp(ttlMillis) * GROWTH));
+    }
+
+    /**
+     * Checks whether a refresh found any difference with what a credential already knew.
+     *
+     * @param fields      the refreshed fields.
+     * @param uid         the known UID.
+     * @param apiKey      the known API key.
+     * @param displayName the known display name.
+     * @param username    the known username.
+     * @param accounts    the known accounts.
+     * @return {@code true} if anything changed.
+     */
+    static boolean changed(DerivedFields fields, String uid, String apiKey, String displayName, String username,
+                           List<CloudBeesAccount> accounts) {
+        return !equal(fields.getUid(), uid)
+                || !equal(fields.getApiKey(), apiKey)
+                || (fields.getDisplayName() != null && !fields.getDisplayName().equals(displayName))
+                || (fields.getUsername() != null && !fields.getUsername().equals(username))
+                || (fields.getAccounts() != null && !sameAccounts(fields.getAccounts(), accounts));
+    }
+
+    /**
+     * Compares two lists of accounts by name and display name.
+     *
+     * @param a the first list.
+     * @param b the second list.
+     * @return {@code true} if both lists hold the same accounts in the same order.
+     */
+    static boolean sameAccounts(List<CloudBeesAccount> a, List<CloudBeesAccount> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            CloudBeesAccount x = a.get(i);
+            CloudBeesAccount y = b.get(i);
+            if (!equal(x.getName(), y.getName()) || !equal(x.getDisplayName(), y.getDisplayName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return Util.fixNull(a).equals(Util.fixNull(b));
+    }
+}
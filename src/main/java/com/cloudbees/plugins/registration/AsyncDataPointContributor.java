@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Contributes additional {@link DataPoint}s into {@link CloudBeesWidget} without blocking a thread while it waits
+ * for them, and says how often they need to be collected again.
+ *
+ * <p>
+ * The output of each contributor is cached per account and collected again once it is older than
+ * {@link #getTtlSeconds()}, independently of the other contributors and of the account health status. The existing
+ * {@link DataPointContributor}s take part through an adapter, see {@link #all()}.
+ */
+public abstract class AsyncDataPointContributor implements ExtensionPoint {
+
+    /**
+     * How costly a contributor is to collect, which decides when its output is collected again.
+     */
+    public static enum Cost {
+        /**
+         * Collected again as soon as a widget render finds the output stale.
+         */
+        CHEAP,
+        /**
+         * Collected again only together with the account health status, while the account is being viewed.
+         */
+        EXPENSIVE
+    }
+
+    /**
+     * Starts collecting the data points of an account.
+     *
+     * <p>
+     * This is called from a background thread and should return as soon as the collection is under way. A future
+     * that is not complete by the deadline of {@link DataPointContributors#TIMEOUT_SECONDS} is cancelled.
+     *
+     * @param user
+     *      User account registered with Jenkins. Never null.
+     * @param accountName
+     *      Status is reported per account. This is the account for which data points are gathered. Never null.
+     * @return the future data points.
+     */
+    public abstract ListenableFuture<List<DataPoint>> collect(CloudBeesUser user, String accountName);
+
+    /**
+     * Returns how long the data points stay fresh.
+     *
+     * @return the time to live in seconds, {@code 120} by default.
+     */
+    public long getTtlSeconds() {
+        return 120;
+    }
+
+    /**
+     * Returns how costly the data points are to collect.
+     *
+     * @return the cost, {@link Cost#EXPENSIVE} by default.
+     */
+    public Cost getCost() {
+        return Cost.EXPENSIVE;
+    }
+
+    /**
+     * Returns the name the output and the statistics of the contributor are kept under.
+     *
+     * @return the name, the class name by default.
+     */
+    public String getName() {
+        return getClass().getName();
+    }
+
+    /**
+     * Returns all the contributors: the {@link DataPointContributor}s, adapted, followed by the
+     * {@link AsyncDataPointContributor}s.
+     *
+     * @return the contributors in the order of the extensions.
+     */
+    public static List<AsyncDataPointContributor> all() {
+        List<DataPointContributor> legacy = DataPointContributor.all();
+        List<AsyncDataPointContributor> async =
+                Jenkins.getActiveInstance().getExtensionList(AsyncDataPointContributor.class);
+        List<AsyncDataPointContributor> result = new ArrayList<AsyncDataPointContributor>(legacy.size() + async.size());
+        for (DataPointContributor dpc : legacy) {
+            result.add(new Legacy(dpc));
+        }
+        result.addAll(async);
+        return result;
+    }
+
+    /**
+     * Runs the blocking {@link DataPointContributor#collect(CloudBeesUser, String, List)} on the
+     * {@link Bulkhead#CONTRIBUTORS} bulkhead, on the 2 minute cycle that it has always been called on.
+     */
+    static final class Legacy extends AsyncDataPointContributor {
+        private final DataPointContributor delegate;
+
+        Legacy(DataPointContributor delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ListenableFuture<List<DataPoint>> collect(final CloudBeesUser user, final String accountName) {
+            ListenableFutureTask<List<DataPoint>> task = ListenableFutureTask.create(new Callable<List<DataPoint>>() {
+                public List<DataPoint> call() throws Exception {
+                    List<DataPoint> result = new ArrayList<DataPoint>();
+                    delegate.collect(user, accountName, result);
+                    return result;
+                }
+            });
+            Bulkhead.CONTRIBUTORS.execute(task);
+            return task;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return delegate.getClass().getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
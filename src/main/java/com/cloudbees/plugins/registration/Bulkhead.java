@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, instrumented thread pool. Each kind of background work gets its own bulkhead so that a flood of one
+ * kind of work cannot starve the others.
+ *
+ * <p>
+ * When both the threads and the queue are busy, new work is rejected with a {@link RejectedExecutionException}.
+ * Callers are expected to treat that as "keep serving the data we already have".
+ *
+ * <p>
+ * The sizes can be tuned with the system properties {@code com.cloudbees.plugins.registration.Bulkhead.NAME.threads}
+ * and {@code com.cloudbees.plugins.registration.Bulkhead.NAME.queue} where {@code NAME} is the name of the bulkhead.
+ */
+public final class Bulkhead extends ThreadPoolExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(Bulkhead.class.getName());
+
+    /**
+     * Refreshes the derived fields of the {@link CloudBeesUserImpl} credentials.
+     */
+    public static final Bulkhead CREDENTIALS = create("CloudBeesUserImpl", 4, 256);
+
+    /**
+     * Collects the account status shown by the {@link CloudBeesWidget}.
+     */
+    public static final Bulkhead STATUS = create("CloudBeesWidget", 4, 64);
+
+    /**
+     * Runs the {@link DataPointContributor}s for the health checks.
+     */
+    public static final Bulkhead CONTRIBUTORS = create("DataPointContributor", 8, 128);
+
+    private final String name;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private Bulkhead(final String name, int threads, int queue) {
+        super(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue),
+                new ExceptionCatchingThreadFactory(new DaemonThreadFactory(new ThreadFactory() {
+                    private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = delegate.newThread(r);
+                        thread.setName(name + "-" + thread.getName());
+                        return thread;
+                    }
+                })));
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                LOGGER.log(Level.FINE, "{0} is saturated, rejecting {1}", new Object[]{Bulkhead.this.name, r});
+                throw new RejectedExecutionException(Bulkhead.this.name + " is saturated");
+            }
+        });
+    }
+
+    private static Bulkhead create(String name, int threads, int queue) {
+        String prefix = Bulkhead.class.getName() + "." + name;
+        return new Bulkhead(name,
+                Math.max(1, Integer.getInteger(prefix + ".threads", threads)),
+                Math.max(1, Integer.getInteger(prefix + ".queue", queue)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new Timed(command));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     *
+     * @return the number of tasks waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks rejected because the bulkhead was saturated.
+     *
+     * @return the number of tasks rejected.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the average time tasks have spent waiting for a thread.
+     *
+     * @return the average time in milliseconds.
+     */
+    public long getAverageWaitMillis() {
+        long count = latencyCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+    }
+
+    /**
+     * Returns the average time tasks have spent running.
+     *
+     * @return the average time in milliseconds.
+     */
+    public long getAverageRunMillis() {
+        long count = latencyCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / count);
+    }
+
+    /**
+     * Returns the longest time from submission to completion of any task.
+     *
+     * @return the longest time in milliseconds.
+     */
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    private void record(long waitNanos, long runNanos) {
+        latencyCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        totalRunNanos.addAndGet(runNanos);
+        long latency = waitNanos + runNanos;
+        long max;
+        do {
+            max = maxLatencyNanos.get();
+        } while (latency > max && !maxLatencyNanos.compareAndSet(max, latency));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "Bulkhead{" + name
+                + ", active=" + getActiveCount()
+                + ", queued=" + getQueuedCount()
+                + ", completed=" + getCompletedTaskCount()
+                + ", rejected=" + getRejectedCount()
+                + ", avgWait=" + getAverageWaitMillis() + "ms"
+                + ", avgRun=" + getAverageRunMillis() + "ms"
+                + ", maxLatency=" + getMaxLatencyMillis() + "ms"
+                + '}';
+    }
+
+    /**
+     * Records how long a task waited and how long it ran.
+     */
+    private final class Timed implements Runnable {
+        private final Runnable delegate;
+        private final long submitted = System.nanoTime();
+
+        private Timed(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        public void run() {
+            long started = System.nanoTime();
+            try {
+                delegate.run();
+            } finally {
+                record(started - submitted, System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.registration.grandcentral.CircuitBreaker;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shows what the plugin is doing in the background: the start-up warm-up, the thread pools and the state of the
+ * remote endpoints.
+ */
+@Extension
+public class CloudBeesDiagnostics extends ManagementLink {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIconFileName() {
+        return "/plugin/cloudbees-registration/images/48x48/credentials.png";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUrlName() {
+        return "cloudbees-registration";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDisplayName() {
+        return Messages.CloudBeesDiagnostics_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDescription() {
+        return Messages.CloudBeesDiagnostics_Description();
+    }
+
+    public long getWarmUpStarted() {
+        return CredentialWarmUp.getStarted();
+    }
+
+    public long getWarmUpFinished() {
+        return CredentialWarmUp.getFinished();
+    }
+
+    public long getWarmUpDuration() {
+        return CredentialWarmUp.getDuration();
+    }
+
+    public int getWarmUpTotal() {
+        return CredentialWarmUp.getTotal();
+    }
+
+    public int getWarmUpFresh() {
+        return CredentialWarmUp.getFresh();
+    }
+
+    public int getWarmUpStale() {
+        return CredentialWarmUp.getStale();
+    }
+
+    public int getWarmUpSkipped() {
+        return CredentialWarmUp.getSkipped();
+    }
+
+    public int getPendingStatusCount() {
+        return CloudBeesWidget.getPendingStatusCount();
+    }
+
+    public int getStatusSubscriberCount() {
+        return StatusEvents.getSubscriberCount();
+    }
+
+    public List<Bulkhead> getBulkheads() {
+        return Arrays.asList(Bulkhead.CREDENTIALS, Bulkhead.STATUS, Bulkhead.CONTRIBUTORS);
+    }
+
+    public List<CircuitBreaker> getCircuitBreakers() {
+        return CircuitBreaker.all();
+    }
+
+    public List<ValidationCache> getValidationCaches() {
+        return Arrays.asList(ValidationCache.PASSWORDS);
+    }
+
+    public List<ContributorStats> getContributorStats() {
+        return DataPointContributors.getStats();
+    }
+}
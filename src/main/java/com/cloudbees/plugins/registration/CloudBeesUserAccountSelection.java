@@ -40,6 +40,9 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A reusable component to select a CloudBees user and account.
@@ -88,6 +91,18 @@ public class CloudBeesUserAccountSelection extends AbstractDescribableImpl<Cloud
                 return FormValidation.warning("No user selected");
             }
             List<CloudBeesAccount> accounts = userInstance.getAccounts();
+            if (accounts == null && userInstance instanceof CloudBeesUserImpl) {
+                // nothing known yet, give the first refresh a chance to complete
+                try {
+                    accounts = ((CloudBeesUserImpl) userInstance).accountsAsync().get(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                } catch (ExecutionException e) {
+                    // ignore, the refresh logs its own failures
+                } catch (TimeoutException e) {
+                    // ignore
+                }
+            }
             if (accounts == null) {
                 return FormValidation.warning("Cannot connect to CloudBees servers to retrieve the account associated with this user");
             }
@@ -122,7 +137,12 @@ public class CloudBeesUserAccountSelection extends AbstractDescribableImpl<Cloud
                 return m;
             }
 
-            for (CloudBeesAccount a : u.getAccounts()) {
+            List<CloudBeesAccount> accounts = u.getAccounts();
+            if (accounts == null) {
+                return m;
+            }
+
+            for (CloudBeesAccount a : accounts) {
                 m.add(a.getName(), a.getName());
             }
 
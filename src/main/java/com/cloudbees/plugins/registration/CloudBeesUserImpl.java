@@ -36,14 +36,19 @@ import com.cloudbees.plugins.registration.grandcentral.ApiUserKeysUsingAuthHandl
 import com.cloudbees.plugins.registration.grandcentral.ApiUserKeysUsingAuthResponse;
 import com.cloudbees.plugins.registration.grandcentral.ApiUserProfileHandler;
 import com.cloudbees.plugins.registration.grandcentral.ApiUserProfileResponse;
-import com.google.common.collect.MapMaker;
+import com.cloudbees.plugins.registration.grandcentral.CircuitBreaker;
+import com.cloudbees.plugins.registration.grandcentral.CircuitBreakerOpenException;
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.ning.http.client.AsyncHttpClient;
-import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.RequestBuilder;
 import hudson.Extension;
 import hudson.Util;
-import hudson.util.DaemonThreadFactory;
-import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
 import jenkins.plugins.asynchttpclient.AHCUtils;
@@ -52,18 +57,22 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.IOException;
-import java.net.ConnectException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,51 +81,308 @@ public class CloudBeesUserImpl extends AbstractCloudBeesUser implements CloudBee
     private static final Logger LOGGER = Logger.getLogger(CloudBeesUserImpl.class.getName());
 
     private static final long serialVersionUID = 1L;
-    private static final int REFRESH_SECONDS = 360;
     private final String name;
     private final Secret password;
     private volatile String apiKey;
     private volatile Secret apiSecret;
     private volatile List<CloudBeesAccount> accounts;
     private transient volatile long lastRefresh;
-    private transient volatile Future<?> update = null;
+    private transient volatile ListenableFuture<?> update = null;
     private transient volatile String uid = null;
     private transient volatile String displayName = null;
     private transient volatile String username = null;
+    private transient volatile ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * How long the derived fields stay fresh, adapted by {@link AdaptiveTtl} after every refresh and restored from
+     * the {@link DerivedFieldSnapshots snapshot}.
+     */
+    private transient volatile long ttlMillis;
+
+    private static final AtomicReferenceFieldUpdater<CloudBeesUserImpl, ListenableFuture> UPDATE =
+            AtomicReferenceFieldUpdater.newUpdater(CloudBeesUserImpl.class, ListenableFuture.class, "update");
+
+    private static final Function<CloudBeesUserImpl, String> UID = new Function<CloudBeesUserImpl, String>() {
+        public String apply(CloudBeesUserImpl user) {
+            return user.getUID();
+        }
+    };
+
+    private static final Function<CloudBeesUserImpl, List<CloudBeesAccount>> ACCOUNTS =
+            new Function<CloudBeesUserImpl, List<CloudBeesAccount>>() {
+                public List<CloudBeesAccount> apply(CloudBeesUserImpl user) {
+                    return user.getAccounts();
+                }
+            };
+
+    private static final Function<CloudBeesUserImpl, ApiKeyPair> API_KEY_PAIR =
+            new Function<CloudBeesUserImpl, ApiKeyPair>() {
+                public ApiKeyPair apply(CloudBeesUserImpl user) {
+                    String apiKey = user.getAPIKey();
+                    Secret apiSecret = user.getAPISecret();
+                    return apiKey == null || apiSecret == null ? null : new ApiKeyPair(apiKey, apiSecret);
+                }
+            };
+
+    /**
+     * The number of refreshes currently in flight across all instances.
+     */
+    private static final AtomicInteger refreshesInFlight = new AtomicInteger();
+
+    /**
+     * Every live instance, whichever credentials store it was loaded from.
+     */
+    private static final List<WeakReference<CloudBeesUserImpl>> instances =
+            new ArrayList<WeakReference<CloudBeesUserImpl>>();
+
+    /**
+     * The keys of the logins that passed {@link DescriptorImpl#doCheckPassword} a moment ago, keyed by
+     * {@link CredentialFingerprint}, so that the credential saved from the form does not ask for them again.
+     */
+    private static final ConcurrentMap<String, DerivedFields> validatedKeys = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .<String, DerivedFields>build()
+            .asMap();
 
     @DataBoundConstructor
     public CloudBeesUserImpl(CredentialsScope scope, String name, String password) {
         super(scope);
         this.name = name;
         this.password = Secret.fromString(password);
+        register(this, restoreSnapshot());
+    }
+
+    private Object readResolve() {
+        register(this, restoreSnapshot());
+        return this;
     }
 
-    private synchronized void update() {
-        if (tryUpdate()) {
-            return;
+    private static void register(CloudBeesUserImpl user, boolean restored) {
+        synchronized (instances) {
+            for (Iterator<WeakReference<CloudBeesUserImpl>> i = instances.iterator(); i.hasNext(); ) {
+                if (i.next().get() == null) {
+                    i.remove();
+                }
+            }
+            instances.add(new WeakReference<CloudBeesUserImpl>(user));
         }
-        if (apiKey == null || apiSecret == null || accounts == null || uid == null || username == null) {
-            try {
-                update.get(30, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                // ignore
-            } catch (ExecutionException e) {
-                // ignore
-            } catch (TimeoutException e) {
-                // ignore
+        RefreshScheduler.scheduleInitial(user, restored);
+    }
+
+    /**
+     * Returns every live instance that has been loaded from any credentials store (or created since).
+     *
+     * @return the live instances.
+     */
+    static List<CloudBeesUserImpl> instances() {
+        List<CloudBeesUserImpl> result = new ArrayList<CloudBeesUserImpl>();
+        synchronized (instances) {
+            for (Iterator<WeakReference<CloudBeesUserImpl>> i = instances.iterator(); i.hasNext(); ) {
+                CloudBeesUserImpl user = i.next().get();
+                if (user == null) {
+                    i.remove();
+                } else {
+                    result.add(user);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serves the last known good derived fields straight away, they will be revalidated in the background. The
+     * snapshot does not hold the keys nor the accounts, so the credential is not fresh until it has been refreshed.
+     *
+     * @return {@code true} if there was a snapshot to restore.
+     */
+    private boolean restoreSnapshot() {
+        DerivedFieldSnapshots.Snapshot snapshot = DerivedFieldSnapshots.lookup(name, password);
+        if (snapshot != null) {
+            uid = snapshot.getUid();
+            displayName = snapshot.getDisplayName();
+            username = snapshot.getUsername();
+            ttlMillis = snapshot.getTtlMillis();
+        }
+        DerivedFields keys = validatedKeys.get(CredentialFingerprint.of(name, password));
+        if (keys != null) {
+            applyKeys(keys);
+        }
+        return snapshot != null;
+    }
+
+    /**
+     * Takes the UID, API key and secret returned by a successful validation of the login.
+     */
+    private void applyKeys(DerivedFields keys) {
+        this.uid = keys.getUid();
+        this.apiKey = keys.getApiKey();
+        this.apiSecret = keys.getApiSecret();
+    }
+
+    /**
+     * Hands the keys returned by a successful validation of a login to the credentials for that login, including
+     * the one about to be created from the form that was validated.
+     *
+     * @param key  the fingerprint of the login.
+     * @param auth the response of the validation.
+     */
+    static void validated(String key, ApiUserKeysUsingAuthResponse auth) {
+        DerivedFields keys = new DerivedFields(auth.getUid(), auth.getApiKey(),
+                Secret.fromString(auth.getSecretKey()), null, null, null, System.currentTimeMillis());
+        validatedKeys.put(key, keys);
+        for (CloudBeesUserImpl user : instances()) {
+            if (key.equals(CredentialFingerprint.of(user.name, user.password))) {
+                user.applyKeys(keys);
             }
         }
     }
 
-    private boolean tryUpdate() {
-        long lastRefresh = this.lastRefresh;
-        if (System.currentTimeMillis() < lastRefresh + TimeUnit.SECONDS.toMillis(REFRESH_SECONDS)) {
-            return true;
+    /**
+     * Waits for the derived fields (API key and secret, UID, username and accounts) to be refreshed if they are
+     * stale. The getters never block and always return the last known value (the {@link RefreshScheduler} keeps
+     * it up to date), this method is for the few callers that need fresh data and can afford to park a thread.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of the timeout.
+     * @return {@code true} if the derived fields are fresh.
+     * @throws InterruptedException if interrupted while waiting.
+     * @see #freshAsync()
+     */
+    public boolean awaitFresh(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            freshAsync().get(timeout, unit);
+        } catch (ExecutionException e) {
+            // ignore, the updater logs its own failures
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return isFresh();
+    }
+
+    /**
+     * Returns this credential once its derived fields are fresh. The future is completed straight away if they
+     * already are, otherwise by the refresh that is in progress or started by this call. If that refresh fails,
+     * or cannot be started, the future completes anyway and the getters return the last known values.
+     *
+     * @return the future of this credential.
+     */
+    public ListenableFuture<CloudBeesUserImpl> freshAsync() {
+        if (isFresh()) {
+            return Futures.immediateFuture(this);
         }
+        ListenableFuture<?> update = refreshInBackground();
         if (update == null) {
-            update = threadPoolForUpdating.submit(new DerivedFieldUpdater());
+            return Futures.immediateFuture(this);
+        }
+        return Futures.transform(update, new Function<Object, CloudBeesUserImpl>() {
+            public CloudBeesUserImpl apply(Object input) {
+                return CloudBeesUserImpl.this;
+            }
+        });
+    }
+
+    /**
+     * Returns the UID once the derived fields are fresh.
+     *
+     * @return the future of the UID, which completes with {@code null} if the UID could not be resolved.
+     * @see #getUID()
+     */
+    public ListenableFuture<String> uidAsync() {
+        return Futures.transform(freshAsync(), UID);
+    }
+
+    /**
+     * Returns the accounts once the derived fields are fresh.
+     *
+     * @return the future of the accounts, which completes with {@code null} if the accounts could not be resolved.
+     * @see #getAccounts()
+     */
+    public ListenableFuture<List<CloudBeesAccount>> accountsAsync() {
+        return Futures.transform(freshAsync(), ACCOUNTS);
+    }
+
+    /**
+     * Returns the API key and secret once the derived fields are fresh.
+     *
+     * @return the future of the API key pair, which completes with {@code null} if the pair could not be resolved.
+     * @see #getAPIKey()
+     * @see #getAPISecret()
+     */
+    public ListenableFuture<ApiKeyPair> apiKeyPairAsync() {
+        return Futures.transform(freshAsync(), API_KEY_PAIR);
+    }
+
+    /**
+     * Returns whether the derived fields have been resolved and are within their TTL.
+     *
+     * @return {@code true} if the derived fields are fresh.
+     */
+    boolean isFresh() {
+        return hasDerivedFields() && System.currentTimeMillis() < lastRefresh + getTtlMillis();
+    }
+
+    /**
+     * Returns whether the API key and secret and the accounts have been resolved, however long ago.
+     *
+     * @return {@code true} if the derived fields that only a refresh resolves are present.
+     */
+    boolean hasDerivedFields() {
+        return apiKey != null && apiSecret != null && accounts != null;
+    }
+
+    /**
+     * Returns how long the derived fields of this credential currently stay fresh.
+     *
+     * @return the time to live in milliseconds.
+     */
+    long getTtlMillis() {
+        return AdaptiveTtl.clamp(ttlMillis);
+    }
+
+    /**
+     * Starts a background refresh unless one is already in progress.
+     *
+     * @return the refresh in progress, or {@code null} if the refresh completed in the meantime or could not be
+     *         started.
+     */
+    ListenableFuture<?> refreshInBackground() {
+        ListenableFuture<?> current = update;
+        if (current != null) {
+            return current;
         }
-        return false;
+        ListenableFutureTask<Void> task = ListenableFutureTask.create(new DerivedFieldUpdater(), null);
+        if (UPDATE.compareAndSet(this, null, task)) {
+            refreshesInFlight.incrementAndGet();
+            try {
+                Bulkhead.CREDENTIALS.execute(task);
+            } catch (RejectedExecutionException e) {
+                // saturated, keep serving what we have and let the scheduler try again
+                refreshesInFlight.decrementAndGet();
+                UPDATE.compareAndSet(this, task, null);
+                LOGGER.log(Level.FINE, "Deferred refresh of {0}: {1}", new Object[]{name, e.getMessage()});
+                return null;
+            }
+            return task;
+        }
+        return update;
+    }
+
+    /**
+     * Returns the number of refreshes currently in flight across all instances.
+     *
+     * @return the number of refreshes in flight.
+     */
+    static int getRefreshesInFlight() {
+        return refreshesInFlight.get();
+    }
+
+    ScheduledFuture<?> getScheduledRefresh() {
+        return scheduledRefresh;
+    }
+
+    void setScheduledRefresh(ScheduledFuture<?> scheduledRefresh) {
+        this.scheduledRefresh = scheduledRefresh;
     }
 
     public String getName() {
@@ -132,33 +398,67 @@ public class CloudBeesUserImpl extends AbstractCloudBeesUser implements CloudBee
     }
 
     public String getAPIKey() {
-        update();
         return apiKey;
     }
 
     public String getUsername() {
-        update();
         return username;
     }
 
     public Secret getAPISecret() {
-        update();
         return apiSecret;
     }
 
+    /**
+     * Returns the last known UID without blocking.
+     *
+     * @return the UID or {@code null} if not resolved yet.
+     * @see #uidAsync()
+     */
     public String getUID() {
-        update();
         return uid;
     }
 
+    /**
+     * Returns the last known accounts without blocking.
+     *
+     * @return the accounts or {@code null} if not resolved yet.
+     * @see #accountsAsync()
+     */
     public List<CloudBeesAccount> getAccounts() {
-        update();
         return accounts;
     }
 
+    /**
+     * The API key and secret of a {@link CloudBeesUserImpl}.
+     */
+    public static final class ApiKeyPair {
+        private final String apiKey;
+        private final Secret apiSecret;
+
+        private ApiKeyPair(String apiKey, Secret apiSecret) {
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+        }
+
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        public Secret getApiSecret() {
+            return apiSecret;
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends CredentialsDescriptor {
 
+        /**
+         * The checks of logins in flight, keyed by {@link CredentialFingerprint}.
+         */
+        private static final ConcurrentMap<String, SettableFuture<ApiUserKeysUsingAuthResponse>> validations =
+                new ConcurrentHashMap<String, SettableFuture<ApiUserKeysUsingAuthResponse>>();
+
         public DescriptorImpl() {
             super();
         }
@@ -183,77 +483,83 @@ public class CloudBeesUserImpl extends AbstractCloudBeesUser implements CloudBee
 
             userName = userName.trim();
             Secret secret = Secret.fromString(password1);
-            CheckCacheEntry checkCacheEntry = CheckCacheEntry.get(userName);
-            if (checkCacheEntry != null && checkCacheEntry.matches(secret)) {
-                return FormValidation.ok();
+            String key = CredentialFingerprint.of(userName, secret);
+            FormValidation cached = ValidationCache.PASSWORDS.get(key);
+            if (cached != null) {
+                return cached;
             }
-            RequestBuilder builder = new RequestBuilder("POST");
-            addProxyServer(builder);
-            AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
-                    .setRequestTimeoutInMs(25000)
-                    .setProxyServer(AHCUtils.getProxyServer())
-                    .build();
-            AsyncHttpClient client = new AsyncHttpClient(config);
+            FormValidation result;
             try {
-                ApiUserKeysUsingAuthHandler.executeRequest(client, userName, Secret.toString(secret)).get();
-                CheckCacheEntry.put(userName, secret);
-                return FormValidation.ok();
+                ApiUserKeysUsingAuthResponse auth = validate(key, userName, secret).get();
+                validated(key, auth);
+                result = FormValidation.ok();
             } catch (RuntimeException e) {
-                Throwable cause = e.getCause();
-                while (cause != null) {
-                    if (cause instanceof FormValidation) {
-                        throw (FormValidation) cause;
-                    }
-                    cause = cause.getCause();
+                result = findFormValidation(e);
+                if (result == null) {
+                    throw e;
                 }
-                throw e;
             } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                while (cause != null) {
-                    if (cause instanceof FormValidation) {
-                        throw (FormValidation) cause;
+                result = findFormValidation(e);
+                if (result == null) {
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw new RuntimeException(e);
                     }
-                    cause = cause.getCause();
+                    // could not connect, remember briefly so that a burst of checks does not pile up
+                    result = FormValidation.error(e.getCause(), e.getCause().getMessage());
                 }
-                throw new RuntimeException(e);
             } catch (InterruptedException e) {
                 return FormValidation.error(e, e.getMessage());
-            } catch (IOException e) {
-                return FormValidation.error(e, e.getMessage());
-            } finally {
-                client.close();
             }
+            ValidationCache.PASSWORDS.put(key, result);
+            return result;
         }
 
-        private static final class CheckCacheEntry {
-            private static final Map<String, CheckCacheEntry> checkCache = new MapMaker()
-                    .concurrencyLevel(16)
-                    .expiration(REFRESH_SECONDS, TimeUnit.SECONDS)
-                    .makeMap();
-
-            private static CheckCacheEntry get(String userName) {
-                return CheckCacheEntry.checkCache.get(userName);
-            }
-
-            private static CheckCacheEntry put(String userName, Secret secret) {
-                return CheckCacheEntry.checkCache.put(userName, new CheckCacheEntry(secret));
-            }
-
-            private static CheckCacheEntry clear(String userName) {
-                return CheckCacheEntry.checkCache.remove(userName);
+        /**
+         * Asks Grand Central to check a login, unless a check of the same login is already in flight, in which
+         * case the caller shares it.
+         */
+        private static Future<ApiUserKeysUsingAuthResponse> validate(final String key, String userName,
+                                                                     Secret secret) {
+            final SettableFuture<ApiUserKeysUsingAuthResponse> validation = SettableFuture.create();
+            SettableFuture<ApiUserKeysUsingAuthResponse> existing = validations.putIfAbsent(key, validation);
+            if (existing != null) {
+                return existing;
             }
-
-            private final long timestamp;
-            private final Secret secret;
-
-            private CheckCacheEntry(Secret secret) {
-                this.timestamp = System.currentTimeMillis();
-                this.secret = secret;
+            try {
+                final com.ning.http.client.ListenableFuture<ApiUserKeysUsingAuthResponse> response =
+                        ApiUserKeysUsingAuthHandler
+                                .executeRequest(SharedAsyncHttpClient.get(), userName, Secret.toString(secret));
+                response.addListener(new Runnable() {
+                    public void run() {
+                        validations.remove(key, validation);
+                        try {
+                            validation.set(response.get());
+                        } catch (ExecutionException e) {
+                            validation.setException(e.getCause());
+                        } catch (InterruptedException e) {
+                            validation.setException(e);
+                        }
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            } catch (IOException e) {
+                validations.remove(key, validation);
+                validation.setException(e);
+            } catch (RuntimeException e) {
+                validations.remove(key, validation);
+                validation.setException(e);
             }
+            return validation;
+        }
 
-            public boolean matches(Secret secret) {
-                return Secret.toString(this.secret).equals(Secret.toString(secret));
+        private static FormValidation findFormValidation(Throwable e) {
+            Throwable cause = e.getCause();
+            while (cause != null) {
+                if (cause instanceof FormValidation) {
+                    return (FormValidation) cause;
+                }
+                cause = cause.getCause();
             }
+            return null;
         }
 
     }
@@ -262,143 +568,273 @@ public class CloudBeesUserImpl extends AbstractCloudBeesUser implements CloudBee
         builder.setProxyServer(AHCUtils.getProxyServer());
     }
 
-    public static final ExecutorService threadPoolForUpdating = Executors
-            .newCachedThreadPool(new ExceptionCatchingThreadFactory(new DaemonThreadFactory(new ThreadFactory() {
-                private final ThreadFactory delegate = Executors.defaultThreadFactory();
-
-                public Thread newThread(Runnable r) {
-                    Thread thread = delegate.newThread(r);
-                    thread.setName("CloudBeesUserImpl-" + thread.getName());
-                    return thread;
-                }
-            })));
-
-    private static final AtomicInteger errorCount = new AtomicInteger(0);
+    /**
+     * @deprecated use {@link Bulkhead#CREDENTIALS}
+     */
+    @Deprecated
+    public static final ExecutorService threadPoolForUpdating = Bulkhead.CREDENTIALS;
 
 
     private class DerivedFieldUpdater implements Runnable {
 
         private final long endTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
 
+        /**
+         * When the next refresh is due, unless the refresh succeeds.
+         */
+        private long nextRefresh = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10)
+                + RefreshScheduler.jitter(TimeUnit.SECONDS.toMillis(10));
+
         public void run() {
-            AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
-                    .setRequestTimeoutInMs(25000)
-                    .setProxyServer(AHCUtils.getProxyServer())
-                    .build();
-            AsyncHttpClient client = new AsyncHttpClient(config);
             try {
-                List<CloudBeesAccount> accounts = null;
-                String uid = CloudBeesUserImpl.this.uid;
-                if (uid != null) {
-                    // we already have a UID, assume it is correct until proved otherwise
-                    try {
-                        ApiUserProfileResponse profileResponse =
-                                ApiUserProfileHandler.executeRequest(client, uid, name).get(
-                                        remainingMillis(), TimeUnit.MILLISECONDS);
-                        displayName = profileResponse.getFullName();
-                        accounts = profileResponse.getAccounts();
-                        if (profileResponse.getUsername() != null) {
-                            username = profileResponse.getUsername();
-                        }
-                    } catch (ExecutionException e) {
-                        LOGGER.log(Level.FINE, "Unexpected response from " + EndPoints.grandCentral(), e);
-                    } catch (IOException e) {
-                        LOGGER.log(Level.FINE, "Could not connect to " + EndPoints.grandCentral(), e);
-                    }
-                    if (accounts == null) {
-                        try {
-                            accounts = ApiAccountNamesHandler.executeRequest(client, uid)
-                                    .get(remainingMillis(), TimeUnit.MILLISECONDS);
-                        } catch (ExecutionException e) {
-                            LOGGER.log(Level.INFO, "Unexpected response from " + EndPoints.grandCentral(), e);
-                            uid = null;
-                        } catch (IOException e) {
-                            LOGGER.log(Level.INFO, "Could not connect to " + EndPoints.grandCentral(), e);
-                        }
-                    }
-                }
-                if (CloudBeesUserImpl.this.apiKey == null || CloudBeesUserImpl.this.apiSecret == null || uid == null) {
-                    // either no UID or the UID is invalid
-                    ApiUserKeysUsingAuthResponse authResponse =
-                            ApiUserKeysUsingAuthHandler.executeRequest(client, name, Secret.toString(password))
-                                    .get(remainingMillis(), TimeUnit.MILLISECONDS);
-                    CloudBeesUserImpl.this.uid = uid = authResponse.getUid();
-                    CloudBeesUserImpl.this.apiKey = authResponse.getApiKey();
-                    CloudBeesUserImpl.this.apiSecret = Secret.fromString(authResponse.getSecretKey());
-                }
-                if (accounts == null) {
-                    try {
-                        ApiUserProfileResponse profileResponse =
-                                ApiUserProfileHandler.executeRequest(client, uid, name).get(
-                                        remainingMillis(), TimeUnit.MILLISECONDS);
-                        displayName = profileResponse.getFullName();
-                        accounts = profileResponse.getAccounts();
-                    } catch (ExecutionException e) {
-                        LOGGER.log(Level.FINE, "Unexpected response from " + EndPoints.grandCentral(), e);
-                    } catch (IOException e) {
-                        LOGGER.log(Level.FINE, "Could not connect to " + EndPoints.grandCentral(), e);
-                    }
-                    if (accounts == null) {
-                        try {
-                            accounts = ApiAccountNamesHandler.executeRequest(client, uid)
-                                    .get(remainingMillis(), TimeUnit.MILLISECONDS);
-                        } catch (ExecutionException e) {
-                            LOGGER.log(Level.WARNING, "Unexpected response from " + EndPoints.grandCentral(), e);
-                        } catch (IOException e) {
-                            LOGGER.log(Level.WARNING, "Could not connect to " + EndPoints.grandCentral(), e);
-                        }
-                    }
-                }
-                if (accounts != null) {
-                    CloudBeesUserImpl.this.accounts = accounts;
-                    if (username == null && !accounts.isEmpty()) {
-                        try {
-                            username = ApiAccountServiceStatusHandler
-                                    .executeRequest(client, uid, accounts.get(0).getName())
-                                    .get(remainingMillis(), TimeUnit.MILLISECONDS);
-                        } catch (ExecutionException e) {
-                            LOGGER.log(Level.WARNING, "Unexpected response from " + EndPoints.grandCentral(), e);
-                        } catch (IOException e) {
-                            LOGGER.log(Level.WARNING, "Could not connect to " + EndPoints.grandCentral(), e);
-                        }
+                // copies of the same login in other stores or domains share the refresh
+                DerivedFields fields = SharedRefreshes.refresh(CredentialFingerprint.of(name, password),
+                        new Fetch(name, password, uid, apiKey, apiSecret, username, endTime))
+                        .get(remainingMillis(), TimeUnit.MILLISECONDS);
+                if (fields.getApiKey() == null || fields.getApiSecret() == null || fields.getAccounts() == null) {
+                    // part of the refresh failed, e.g. the circuits are open, which says nothing about whether
+                    // anything changed: keep what was resolved and retry as for any other failure
+                    if (fields.getApiKey() != null && fields.getApiSecret() != null) {
+                        applyKeys(fields);
                     }
+                    backOff(new IOException("Could not resolve the accounts of " + name));
+                    return;
                 }
-                errorCount.set(0);
-                CloudBeesUserImpl.this.lastRefresh = System.currentTimeMillis();
-            } catch (IOException e) {
-                // back off if cannot connect
-                int delay =
-                        new Random().nextInt(1 << Math.max(0, Math.min(errorCount.getAndIncrement(), 10))) * 10 + 10;
-                CloudBeesUserImpl.this.lastRefresh =
-                        System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(REFRESH_SECONDS - delay);
-                LOGGER.log(Level.WARNING,
-                        "Could not connect to " + EndPoints.grandCentral() + " Checking again in " + delay + "s", e);
+                // the keys and the accounts are not kept across restarts, resolving them again is not a change
+                boolean changed = AdaptiveTtl.changed(fields, uid, apiKey == null ? fields.getApiKey() : apiKey,
+                        displayName, username, accounts == null ? fields.getAccounts() : accounts);
+                ttlMillis = AdaptiveTtl.next(ttlMillis, changed);
+                apply(fields);
+                nextRefresh = RefreshScheduler.refreshAhead(fields.getTimestamp(), ttlMillis);
             } catch (InterruptedException e) {
                 LOGGER.log(Level.INFO, "Interrupted while waiting for response from " + EndPoints.grandCentral(), e);
+            } catch (TimeoutException e) {
+                LOGGER.log(Level.WARNING, "Connection to " + EndPoints.grandCentral() + " timed out", e);
             } catch (ExecutionException e) {
-                if (e.getCause() instanceof IOException) {
-                    int delay = new Random().nextInt(1 << Math.max(0, Math.min(errorCount.getAndIncrement(), 10))) * 10
-                            + 10;
-                    CloudBeesUserImpl.this.lastRefresh =
-                            System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(REFRESH_SECONDS - delay);
-                    LOGGER.log(Level.WARNING,
-                            "Could not connect to " + EndPoints.grandCentral() + " Checking again in " + delay + "s",
-                            e);
+                Throwable cause = e.getCause();
+                if (cause instanceof FormValidation) {
+                    // rejected, e.g. a wrong password, no point in asking again before the usual time
+                    ttlMillis = AdaptiveTtl.minMillis();
+                    nextRefresh = RefreshScheduler.refreshAhead(System.currentTimeMillis(), ttlMillis);
+                    LOGGER.log(Level.WARNING, "Could not connect to {0}: {1}",
+                            new Object[]{EndPoints.grandCentral(), cause.getMessage()});
+                    LOGGER.log(Level.FINE, null, e);
+                } else if (cause instanceof IOException) {
+                    backOff((IOException) cause);
+                } else if (cause instanceof TimeoutException) {
+                    LOGGER.log(Level.WARNING, "Connection to " + EndPoints.grandCentral() + " timed out", cause);
+                } else if (cause instanceof InterruptedException) {
+                    LOGGER.log(Level.INFO, "Interrupted while waiting for response from " + EndPoints.grandCentral(),
+                            cause);
                 } else {
                     LOGGER.log(Level.WARNING, "Could not connect to {0}: {1}", new Object[] {EndPoints.grandCentral(), e});
                     LOGGER.log(Level.FINE, null, e);
                 }
-            } catch (TimeoutException e) {
-                LOGGER.log(Level.WARNING, "Connection to " + EndPoints.grandCentral()+" timed out", e);
             } finally {
                 CloudBeesUserImpl.this.update = null;
-                client.close();
+                refreshesInFlight.decrementAndGet();
+                RefreshScheduler.schedule(CloudBeesUserImpl.this, nextRefresh);
+            }
+        }
+
+        private void apply(DerivedFields fields) {
+            CloudBeesUserImpl.this.uid = fields.getUid();
+            CloudBeesUserImpl.this.apiKey = fields.getApiKey();
+            CloudBeesUserImpl.this.apiSecret = fields.getApiSecret();
+            if (fields.getDisplayName() != null) {
+                CloudBeesUserImpl.this.displayName = fields.getDisplayName();
+            }
+            if (fields.getUsername() != null) {
+                CloudBeesUserImpl.this.username = fields.getUsername();
+            }
+            List<CloudBeesAccount> previous = CloudBeesUserImpl.this.accounts;
+            List<CloudBeesAccount> current = fields.getAccounts();
+            boolean accountsChanged = current != null && !AdaptiveTtl.sameAccounts(previous, current);
+            if (accountsChanged) {
+                // only swap the list on a real difference, so that identity stays meaningful to callers
+                CloudBeesUserImpl.this.accounts = current;
+            }
+            CloudBeesUserImpl.this.lastRefresh = fields.getTimestamp();
+            DerivedFieldSnapshots.record(name, password, uid, displayName, username, fields.getTimestamp(),
+                    ttlMillis);
+            if (accountsChanged) {
+                CloudBeesUserListener.fireAccountsChanged(CloudBeesUserImpl.this, previous, current);
+            }
+        }
+
+        /**
+         * Keeps serving the cached values and retries once the circuit of the failing endpoint lets requests
+         * through again.
+         */
+        private void backOff(IOException e) {
+            long delay = TimeUnit.SECONDS.toMillis(10) + RefreshScheduler.jitter(TimeUnit.SECONDS.toMillis(10));
+            // only the endpoints a refresh calls, an outage of the others should not hold it back
+            delay = Math.max(delay, CircuitBreaker.maxRetryAfterMillis(CircuitBreaker.USER_KEYS_USING_AUTH,
+                    CircuitBreaker.USER_PROFILE, CircuitBreaker.ACCOUNT_NAMES, CircuitBreaker.ACCOUNT_SERVICE_STATUS));
+            long now = System.currentTimeMillis();
+            CloudBeesUserImpl.this.lastRefresh = now - getTtlMillis() + delay;
+            nextRefresh = now + delay;
+            if (e instanceof CircuitBreakerOpenException) {
+                LOGGER.log(Level.FINE, "Not refreshing {0}: {1}", new Object[]{name, e.getMessage()});
+            } else {
+                LOGGER.log(Level.WARNING, "Could not connect to " + EndPoints.grandCentral() + " Checking again in "
+                        + TimeUnit.MILLISECONDS.toSeconds(delay) + "s", e);
             }
         }
 
         private long remainingMillis() {
             return Math.max(10, endTime - System.currentTimeMillis());
         }
+    }
+
+    /**
+     * Fetches the derived fields of a login from Grand Central, starting from the values already known.
+     */
+    private static final class Fetch implements Callable<DerivedFields> {
+
+        private final String name;
+        private final Secret password;
+        private final long endTime;
+        private String uid;
+        private String apiKey;
+        private Secret apiSecret;
+        private String displayName;
+        private String username;
+
+        private Fetch(String name, Secret password, String uid, String apiKey, Secret apiSecret, String username,
+                      long endTime) {
+            this.name = name;
+            this.password = password;
+            this.uid = uid;
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+            this.username = username;
+            this.endTime = endTime;
+        }
+
+        public DerivedFields call() throws Exception {
+            try {
+                return fetch();
+            } catch (ExecutionException e) {
+                // report the failure of the request rather than that of its future
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+
+        private DerivedFields fetch() throws IOException, InterruptedException, ExecutionException,
+                TimeoutException {
+            AsyncHttpClient client = SharedAsyncHttpClient.get();
+            String uid = this.uid;
+            // stage 1: fire everything that does not depend on the result of another call at once
+            Future<ApiUserKeysUsingAuthResponse> authFuture = null;
+            if (apiKey == null || apiSecret == null || uid == null) {
+                authFuture = ApiUserKeysUsingAuthHandler.executeRequest(client, name, Secret.toString(password));
+            }
+            List<CloudBeesAccount> accounts = null;
+            if (uid != null) {
+                // we already have a UID, assume it is correct until proved otherwise
+                AccountsStage stage = new AccountsStage(client, uid, Level.INFO);
+                accounts = stage.await();
+                if (stage.isUidRejected()) {
+                    uid = null;
+                }
+            }
+            // stage 2: only the calls that need a (new) UID wait for the authentication
+            if (authFuture == null && uid == null) {
+                // the UID is invalid
+                authFuture = ApiUserKeysUsingAuthHandler.executeRequest(client, name, Secret.toString(password));
+            }
+            if (authFuture != null) {
+                ApiUserKeysUsingAuthResponse authResponse =
+                        authFuture.get(remainingMillis(), TimeUnit.MILLISECONDS);
+                if (uid != null && !uid.equals(authResponse.getUid())) {
+                    // the accounts we have were for a different UID
+                    accounts = null;
+                }
+                this.uid = uid = authResponse.getUid();
+                this.apiKey = authResponse.getApiKey();
+                this.apiSecret = Secret.fromString(authResponse.getSecretKey());
+            }
+            if (accounts == null) {
+                accounts = new AccountsStage(client, uid, Level.WARNING).await();
+            }
+            if (accounts != null && username == null && !accounts.isEmpty()) {
+                try {
+                    username = ApiAccountServiceStatusHandler
+                            .executeRequest(client, uid, accounts.get(0).getName())
+                            .get(remainingMillis(), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Unexpected response from " + EndPoints.grandCentral(), e);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not connect to " + EndPoints.grandCentral(), e);
+                }
+            }
+            return new DerivedFields(uid, apiKey, apiSecret, displayName, username, accounts,
+                    System.currentTimeMillis());
+        }
+
+        private long remainingMillis() {
+            return Math.max(10, endTime - System.currentTimeMillis());
+        }
+
+        /**
+         * Asks for the user profile of a UID, which carries the display names of the accounts, and only falls back
+         * to the account names when the profile cannot be had.
+         */
+        private final class AccountsStage {
+            private final AsyncHttpClient client;
+            private final String uid;
+            private final Future<ApiUserProfileResponse> profile;
+            private final Level level;
+            private boolean uidRejected;
+
+            private AccountsStage(AsyncHttpClient client, String uid, Level level) {
+                this.client = client;
+                this.uid = uid;
+                this.level = level;
+                Future<ApiUserProfileResponse> profile = null;
+                try {
+                    profile = ApiUserProfileHandler.executeRequest(client, uid, name);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not connect to " + EndPoints.grandCentral(), e);
+                }
+                this.profile = profile;
+            }
+
+            private List<CloudBeesAccount> await() throws InterruptedException, TimeoutException {
+                if (profile != null) {
+                    try {
+                        ApiUserProfileResponse profileResponse =
+                                profile.get(remainingMillis(), TimeUnit.MILLISECONDS);
+                        displayName = profileResponse.getFullName();
+                        if (profileResponse.getUsername() != null) {
+                            username = profileResponse.getUsername();
+                        }
+                        return profileResponse.getAccounts();
+                    } catch (ExecutionException e) {
+                        LOGGER.log(Level.FINE, "Unexpected response from " + EndPoints.grandCentral(), e);
+                    }
+                }
+                try {
+                    return ApiAccountNamesHandler.executeRequest(client, uid)
+                            .get(remainingMillis(), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    LOGGER.log(level, "Unexpected response from " + EndPoints.grandCentral(), e);
+                    uidRejected = true;
+                } catch (IOException e) {
+                    LOGGER.log(level, "Could not connect to " + EndPoints.grandCentral(), e);
+                }
+                return null;
+            }
+
+            private boolean isUidRejected() {
+                return uidRejected;
+            }
+        }
 
     }
 }
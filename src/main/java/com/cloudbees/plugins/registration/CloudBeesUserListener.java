@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives notifications when the CloudBees accounts of a credential change.
+ *
+ * <p>
+ * Notifications are only sent when a refresh finds an actual difference, a refresh that brings back the same
+ * accounts keeps the existing list and notifies nobody.
+ */
+public abstract class CloudBeesUserListener implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(CloudBeesUserListener.class.getName());
+
+    /**
+     * Called when the accounts of a credential have changed.
+     *
+     * <p>
+     * This is called from the thread that refreshed the credential and should return quickly.
+     *
+     * @param user     the credential. Never null.
+     * @param previous the accounts before the change, {@code null} if they were not known.
+     * @param current  the accounts after the change. Never null.
+     */
+    public void onAccountsChanged(CloudBeesUser user, List<CloudBeesAccount> previous,
+                                  List<CloudBeesAccount> current) {
+    }
+
+    public static ExtensionList<CloudBeesUserListener> all() {
+        return Jenkins.getActiveInstance().getExtensionList(CloudBeesUserListener.class);
+    }
+
+    /**
+     * Notifies all the listeners that the accounts of a credential have changed.
+     *
+     * @param user     the credential.
+     * @param previous the accounts before the change.
+     * @param current  the accounts after the change.
+     */
+    static void fireAccountsChanged(CloudBeesUser user, List<CloudBeesAccount> previous,
+                                    List<CloudBeesAccount> current) {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        List<CloudBeesAccount> unmodifiablePrevious =
+                previous == null ? null : Collections.unmodifiableList(previous);
+        List<CloudBeesAccount> unmodifiableCurrent = Collections.unmodifiableList(current);
+        for (CloudBeesUserListener listener : jenkins.getExtensionList(CloudBeesUserListener.class)) {
+            try {
+                listener.onAccountsChanged(user, unmodifiablePrevious, unmodifiableCurrent);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Listener " + listener + " failed on the accounts of " + user.getName(), e);
+            }
+        }
+    }
+}
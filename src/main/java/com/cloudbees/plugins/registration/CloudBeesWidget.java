@@ -26,47 +26,55 @@ package com.cloudbees.plugins.registration;
 
 import com.cloudbees.Domain;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
-import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUserWithAccountApiKey;
 import com.cloudbees.plugins.registration.grandcentral.ApiAccountHealthStatusHandler;
+import com.cloudbees.plugins.registration.grandcentral.CircuitBreakerOpenException;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.ning.http.client.AsyncHttpClient;
-import com.ning.http.client.AsyncHttpClientConfig;
-import com.ning.http.client.ListenableFuture;
 import hudson.Extension;
 import hudson.Util;
+import hudson.model.Api;
 import hudson.model.Hudson;
-import hudson.model.PeriodicWork;
 import hudson.security.Permission;
 import hudson.security.PermissionGroup;
 import hudson.security.PermissionScope;
 import hudson.widgets.Widget;
 import jenkins.model.Jenkins;
-import jenkins.plugins.asynchttpclient.AHCUtils;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.acegisecurity.Authentication;
 import org.apache.commons.lang.StringUtils;
 import org.jvnet.localizer.ResourceBundleHolder;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.ConnectException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -127,77 +135,420 @@ public class CloudBeesWidget extends Widget {
     }
 
     public List<String> getAccounts() {
-        Set<CloudBeesUser> users = new LinkedHashSet<CloudBeesUser>();
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUserWithAccountApiKey.class));
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class));
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class, Hudson.getAuthentication()));
-        Set<String> result = new TreeSet<String>();
-        for (CloudBeesUser user : users) {
-            List<CloudBeesAccount> accounts = user.getAccounts();
-            if (accounts != null) {
-                for (CloudBeesAccount account : accounts) {
-                    result.add(account.getName());
-                }
-            }
-        }
-        return new ArrayList<String>(result);
+        return AccountIndex.getAccountNames(Hudson.getAuthentication());
     }
 
     public CloudBeesUser findUser(String accountName) {
-        Set<CloudBeesUser> users = new LinkedHashSet<CloudBeesUser>();
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUserWithAccountApiKey.class));
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class));
-        users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUser.class, Hudson.getAuthentication()));
-        for (CloudBeesUser user : users) {
-            List<CloudBeesAccount> accounts = user.getAccounts();
-            if (accounts != null) {
-                for (CloudBeesAccount account : accounts) {
-                    if (accountName.endsWith(account.getName())) {
-                        return user;
-                    }
-                }
-            }
-        }
-        return null;
+        return AccountIndex.findUser(accountName, Hudson.getAuthentication());
     }
 
     public List<DataPoint> getAccountStatus(String accountName) throws Exception {
+        CloudBeesUser user = findUser(accountName);
+        StatusCacheEntry result = requestIfStale(accountName, user);
+        if (result==null)
+            return null;
+
+        List<DataPoint> r = new ArrayList<DataPoint>(result.value);
+        DataPointContributors.collectSync(user, accountName, r);
+        return r;
+    }
+
+    /**
+     * Returns when the cached status of an account was fetched, if it is being shown past its freshness.
+     *
+     * @param accountName the account name.
+     * @return the time the status was fetched, or {@code null} if the status is fresh or missing.
+     */
+    public Date getAccountStatusAsOf(String accountName) {
+        StatusCacheEntry entry = statusCache.get(accountName);
+        if (entry == null
+                || entry.timestamp + TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS) >= System.currentTimeMillis()) {
+            return null;
+        }
+        return new Date(entry.timestamp);
+    }
+
+    /**
+     * Asks for the status of an account to be updated in the background if the cached status is missing or old.
+     *
+     * @return the cached status, if any.
+     */
+    private static StatusCacheEntry requestIfStale(final String accountName, final CloudBeesUser user) {
+        lastViewed.put(accountName, System.currentTimeMillis());
         StatusCacheEntry result = statusCache.get(accountName);
-        if (result == null || (result.timestamp + TimeUnit.SECONDS.toMillis(120) < System.currentTimeMillis()
-                && !result.requested)) {
-            CloudBeesUser user = findUser(accountName);
+        if (result != null && user != null) {
+            // the cheap contributors are refreshed on their own cadence, in between health checks
+            DataPointContributors.refreshCheap(user, accountName, new Runnable() {
+                public void run() {
+                    StatusCacheEntry current = statusCache.get(accountName);
+                    if (current != null) {
+                        replaceStatus(accountName, current,
+                                new StatusCacheEntry(current, DataPointContributors.cached(user, accountName)));
+                    }
+                }
+            });
+        }
+        if (result == null || (result.timestamp + TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS)
+                < System.currentTimeMillis() && !result.requested)) {
             if (user != null) {
                 if (result != null) {
                     result.requested = true;
+                    // it has just gone past its freshness, so the fragment now shows when it was fetched
+                    version.incrementAndGet();
+                    StatusEvents.publish(accountName);
                 }
-                pendingStatus.offer(new AbstractMap.SimpleEntry<CloudBeesUser, String>(user, accountName));
+                enqueue(user, accountName);
             }
         }
-        if (result==null)
-            return null;
+        return result;
+    }
 
-        List<DataPoint> r = new ArrayList<DataPoint>(result.value);
-        for (DataPointContributor dpc : DataPointContributor.all()) {
-            dpc.collectSync(findUser(accountName),accountName,r);
+    /**
+     * Serves the widget fragment polled by the page, answering {@code 304 Not Modified} when neither the cached
+     * statuses nor the accounts have changed since the version the browser has.
+     */
+    public void doAjax(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        Authentication authentication = Hudson.getAuthentication();
+        for (String accountName : AccountIndex.getAccountNames(authentication)) {
+            // polling is what keeps the cached statuses up to date, so keep asking even if nothing is rendered
+            requestIfStale(accountName, AccountIndex.findUser(accountName, authentication));
+        }
+        StringBuilder etag = new StringBuilder("\"");
+        etag.append(version.get()).append('.').append(AccountIndex.getGeneration());
+        etag.append('.').append(Integer.toHexString(Util.fixNull(authentication.getName()).hashCode()));
+        etag.append('.').append(Jenkins.getActiveInstance().hasPermission(Jenkins.ADMINISTER) ? 'a' : 'u');
+        etag.append('.').append(isRegistered() ? 'r' : 'n');
+        if (!DataPointContributor.all().isEmpty()) {
+            // synchronous data points can change without the cache changing, let them through every so often
+            etag.append('.').append(System.currentTimeMillis() / TimeUnit.SECONDS.toMillis(SYNC_PERIOD_SECONDS));
+        }
+        etag.append('"');
+        String tag = etag.toString();
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        rsp.setHeader("ETag", tag);
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(tag)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        req.getView(this, "ajax.jelly").forward(req, rsp);
+    }
+
+    /**
+     * Streams the changes of the statuses visible to the current user as server-sent events. Each event names the
+     * account whose status changed (or none if all may have), the browser then polls the fragment again.
+     *
+     * <p>
+     * The stream is closed after {@link StatusEvents#HOLD_SECONDS}, browsers reconnect and pick up from the last
+     * event they saw. When too many browsers are subscribed, the request is refused and the browser polls instead.
+     */
+    public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getActiveInstance().checkPermission(VIEW);
+        if (!StatusEvents.subscribe()) {
+            rsp.setHeader("Retry-After", Integer.toString(StatusEvents.HOLD_SECONDS));
+            rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            long last = StatusEvents.getSequence();
+            String lastEventId = req.getHeader("Last-Event-ID");
+            if (lastEventId != null) {
+                last = StatusEvents.fromId(lastEventId);
+            }
+            Authentication authentication = Hudson.getAuthentication();
+            Set<String> visible = new HashSet<String>(AccountIndex.getAccountNames(authentication));
+            for (String accountName : visible) {
+                // subscribers do not poll, so keep their accounts up to date from here
+                requestIfStale(accountName, AccountIndex.findUser(accountName, authentication));
+            }
+            rsp.setContentType("text/event-stream;charset=UTF-8");
+            rsp.setHeader("Cache-Control", "no-cache");
+            // keep reverse proxies from buffering the stream
+            rsp.setHeader("X-Accel-Buffering", "no");
+            PrintWriter w = rsp.getWriter();
+            w.print("retry: 5000\n\n");
+            w.flush();
+            long end = System.currentTimeMillis() + StatusEvents.getHoldMillis();
+            for (long remaining = end - System.currentTimeMillis(); remaining > 0;
+                 remaining = end - System.currentTimeMillis()) {
+                for (StatusEvents.Event event : StatusEvents.await(last, remaining)) {
+                    last = event.getSequence();
+                    if (event.getAccountName() == null) {
+                        visible = new HashSet<String>(AccountIndex.getAccountNames(authentication));
+                    } else if (!visible.contains(event.getAccountName())) {
+                        continue;
+                    }
+                    JSONObject data = new JSONObject();
+                    data.put("account", event.getAccountName());
+                    data.put("version", event.getVersion());
+                    w.print("id: " + StatusEvents.toId(event.getSequence()) + "\nevent: status\ndata: " + data
+                            + "\n\n");
+                }
+                w.flush();
+                if (w.checkError()) {
+                    // the browser went away
+                    return;
+                }
+            }
+            // tell the browser where to resume from even if nothing it can see happened
+            w.print("id: " + StatusEvents.toId(last) + "\n\n");
+            w.flush();
+        } catch (InterruptedException e) {
+            LOGGER.log(FINE, "Interrupted while streaming status events", e);
+        } finally {
+            StatusEvents.unsubscribe();
+        }
+    }
+
+    /**
+     * Exposes the cached statuses of the accounts visible to the current user as {@code api/json} and
+     * {@code api/xml}. Nothing is fetched on behalf of the caller, and a caller that already has the same snapshot
+     * gets {@code 304 Not Modified}.
+     */
+    public Api getApi() {
+        Jenkins.getActiveInstance().checkPermission(VIEW);
+        Authentication authentication = Hudson.getAuthentication();
+        long version = CloudBeesWidget.version.get();
+        List<StatusSnapshot.AccountStatus> accounts = new ArrayList<StatusSnapshot.AccountStatus>();
+        for (String accountName : AccountIndex.getAccountNames(authentication)) {
+            StatusCacheEntry entry = statusCache.get(accountName);
+            if (entry == null) {
+                accounts.add(new StatusSnapshot.AccountStatus(accountName, 0, true, null));
+            } else {
+                accounts.add(new StatusSnapshot.AccountStatus(accountName, entry.timestamp, entry.requested,
+                        entry.value));
+            }
+        }
+        StatusSnapshot snapshot = new StatusSnapshot(version, accounts);
+        // the timestamps and the updating flags change without the version changing
+        String tag = "\"api." + AccountIndex.getGeneration() + '.'
+                + Integer.toHexString(Util.fixNull(authentication.getName()).hashCode()) + '.' + snapshot.digest()
+                + '"';
+        return new StatusApi(snapshot, tag);
+    }
+
+    /**
+     * The remote API of the cached statuses, which answers {@code 304 Not Modified} when the browser already has
+     * the current version. The check is done here rather than in {@link #getApi()} because a response thrown from
+     * a getter is not reliably rendered by Stapler.
+     */
+    public static final class StatusApi extends Api {
+        private final String tag;
+
+        private StatusApi(StatusSnapshot snapshot, String tag) {
+            super(snapshot);
+            this.tag = tag;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void doXml(StaplerRequest req, StaplerResponse rsp, @QueryParameter String xpath,
+                          @QueryParameter String wrapper, @QueryParameter String tree, @QueryParameter int depth)
+                throws IOException, ServletException {
+            if (!notModified(req, rsp)) {
+                super.doXml(req, rsp, xpath, wrapper, tree, depth);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+            if (!notModified(req, rsp)) {
+                super.doJson(req, rsp);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void doPython(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+            if (!notModified(req, rsp)) {
+                super.doPython(req, rsp);
+            }
+        }
+
+        private boolean notModified(StaplerRequest req, StaplerResponse rsp) {
+            rsp.setHeader("Cache-Control", "private, no-cache");
+            rsp.setHeader("ETag", tag);
+            String ifNoneMatch = req.getHeader("If-None-Match");
+            if (ifNoneMatch != null && ifNoneMatch.contains(tag)) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the version of the cached statuses, which changes whenever any of them changes.
+     *
+     * @return the version.
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Caches the result of a health check. The fragment shows when a status was fetched once it is past its
+     * freshness, so a new result always changes the version even if its data points are the same.
+     */
+    private static void putStatus(String accountName, StatusCacheEntry entry) {
+        statusCache.put(accountName, entry);
+        version.incrementAndGet();
+        StatusEvents.publish(accountName);
+    }
+
+    /**
+     * Replaces the cached status of an account, unless a health check has replaced it in the meantime.
+     */
+    private static void replaceStatus(String accountName, StatusCacheEntry expected, StatusCacheEntry entry) {
+        if (statusCache.replace(accountName, expected, entry) && !sameDataPoints(expected.value, entry.value)) {
+            version.incrementAndGet();
+            StatusEvents.publish(accountName);
         }
-        return r;
     }
 
-    private static final Queue<Map.Entry<CloudBeesUser, String>> pendingStatus =
-            new ConcurrentLinkedQueue<Map.Entry<CloudBeesUser, String>>();
-    private static final Map<String, StatusCacheEntry> statusCache = new MapMaker()
+    private static boolean sameDataPoints(List<DataPoint> a, List<DataPoint> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            DataPoint x = a.get(i);
+            DataPoint y = b.get(i);
+            if (x.getClass() != y.getClass()
+                    || !Util.fixNull(x.getIconFileName()).equals(Util.fixNull(y.getIconFileName()))
+                    || !Util.fixNull(x.getMessage()).equals(Util.fixNull(y.getMessage()))
+                    || !Util.fixNull(x.getFormattedValue()).equals(Util.fixNull(y.getFormattedValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * How often the fragment is rendered again for the sake of {@link DataPointContributor#collectSync}.
+     */
+    private static final long SYNC_PERIOD_SECONDS = 10;
+
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * How long a cached status is considered fresh.
+     */
+    private static final int SOFT_TTL_SECONDS =
+            Math.max(1, Integer.getInteger(CloudBeesWidget.class.getName() + ".softTtlSeconds", 120));
+
+    /**
+     * How long a cached status is kept after it was last read.
+     */
+    private static final int HARD_TTL_SECONDS = Math.max(SOFT_TTL_SECONDS,
+            Integer.getInteger(CloudBeesWidget.class.getName() + ".hardTtlSeconds", 3600));
+
+    /**
+     * How long after it was last viewed the status of an account is still refreshed ahead of expiry.
+     */
+    private static final int VIEW_WINDOW_SECONDS =
+            Math.max(0, Integer.getInteger(CloudBeesWidget.class.getName() + ".viewWindowSeconds", 300));
+
+    /**
+     * The pending status updates, keyed by account and user name so that asking again for an update that is
+     * already pending is a no-op. An update stays pending until its health check starts.
+     */
+    private static final ConcurrentMap<String, Map.Entry<CloudBeesUser, String>> pendingStatus =
+            new ConcurrentHashMap<String, Map.Entry<CloudBeesUser, String>>();
+
+    /**
+     * When the status of each account was last viewed.
+     */
+    private static final ConcurrentMap<String, Long> lastViewed = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Asks for the status of an account to be updated right away, unless an update is already pending.
+     *
+     * @return {@code true} if the update was not already pending.
+     */
+    private static boolean enqueue(CloudBeesUser user, String accountName) {
+        String key = accountName + '\n' + user.getName();
+        if (pendingStatus.putIfAbsent(key, new AbstractMap.SimpleEntry<CloudBeesUser, String>(user, accountName))
+                == null) {
+            StatusUpdater.dispatch(key, user, accountName);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the status of an account has been viewed recently enough to be kept up to date.
+     */
+    private static boolean isViewed(String accountName) {
+        Long viewed = lastViewed.get(accountName);
+        if (viewed == null) {
+            return false;
+        }
+        if (viewed + TimeUnit.SECONDS.toMillis(VIEW_WINDOW_SECONDS) < System.currentTimeMillis()) {
+            lastViewed.remove(accountName, viewed);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of pending status updates.
+     *
+     * @return the queue depth.
+     */
+    public static int getPendingStatusCount() {
+        return pendingStatus.size();
+    }
+    /**
+     * The last known status of each account. An entry is served whatever its age, and updated in the background
+     * once it is older than {@link #SOFT_TTL_SECONDS}. Entries that nobody has read for {@link #HARD_TTL_SECONDS}
+     * are dropped, so the accounts being viewed never fall out.
+     */
+    private static final Map<String, StatusCacheEntry> statusCache = CacheBuilder.newBuilder()
             .concurrencyLevel(16)
-            .expiration(600, TimeUnit.SECONDS)
-            .makeMap();
+            .expireAfterAccess(HARD_TTL_SECONDS, TimeUnit.SECONDS)
+            .<String, StatusCacheEntry>build()
+            .asMap();
 
     private static class StatusCacheEntry {
         private final long timestamp;
+        /**
+         * The data points of the health check.
+         */
+        private final List<DataPoint> health;
+        /**
+         * The data points of the health check followed by those of the contributors.
+         */
         private final List<DataPoint> value;
         private volatile boolean requested;
 
         private StatusCacheEntry(List<? extends DataPoint> value) {
-            this.timestamp = System.currentTimeMillis();
-            this.value = ImmutableList.copyOf(value);
+            this(value, Collections.<DataPoint>emptyList());
+        }
+
+        private StatusCacheEntry(List<? extends DataPoint> health, List<? extends DataPoint> contributed) {
+            this(System.currentTimeMillis(), health, contributed);
+        }
+
+        /**
+         * Keeps the health check of a cached status with new data points from the contributors.
+         */
+        private StatusCacheEntry(StatusCacheEntry previous, List<? extends DataPoint> contributed) {
+            this(previous.timestamp, previous.health, contributed);
+            this.requested = previous.requested;
+        }
+
+        private StatusCacheEntry(long timestamp, List<? extends DataPoint> health,
+                                 List<? extends DataPoint> contributed) {
+            this.timestamp = timestamp;
+            this.health = ImmutableList.copyOf(health);
+            this.value = ImmutableList.<DataPoint>builder().addAll(health).addAll(contributed).build();
         }
 
         private StatusCacheEntry(DataPoint... values) {
@@ -254,150 +605,208 @@ public class CloudBeesWidget extends Widget {
         }
     }
 
-    @Extension
-    public static class StatusUpdater extends PeriodicWork {
+    /**
+     * Starts the health checks as soon as they are asked for, and again ahead of expiry for the accounts that are
+     * being viewed. Nothing runs while nobody is looking at the widget.
+     */
+    public static class StatusUpdater {
 
         private static final ConcurrentMap<String, Boolean> inProgress = new ConcurrentHashMap<String, Boolean>();
 
-        @Override
-        public long getRecurrencePeriod() {
-            return TimeUnit.SECONDS.toMillis(5);
+        /**
+         * The refresh-ahead timers of the accounts being viewed.
+         */
+        private static final ConcurrentMap<String, ScheduledFuture<?>> refreshAhead =
+                new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+        private static void dispatch(final String key, final CloudBeesUser user, final String accountName) {
+            if (user instanceof CloudBeesUserImpl) {
+                // the health check needs the UID, only start it once the credential is fresh
+                ((CloudBeesUserImpl) user).freshAsync().addListener(new Runnable() {
+                    public void run() {
+                        submit(key, user, accountName);
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            } else {
+                submit(key, user, accountName);
+            }
         }
 
-        @Override
-        protected void doRun() throws Exception {
-            while (true) {
-                final Map.Entry<CloudBeesUser, String> entry = pendingStatus.poll();
-                if (entry == null) {
-                    return;
+        private static void submit(String key, CloudBeesUser user, String accountName) {
+            try {
+                Bulkhead.STATUS.execute(new HealthCheck(key, user, accountName));
+            } catch (RejectedExecutionException e) {
+                // saturated, keep serving the cached status and let the next render ask again
+                pendingStatus.remove(key);
+                StatusCacheEntry cached = statusCache.get(accountName);
+                if (cached != null) {
+                    cached.requested = false;
                 }
-                final CloudBeesUser user = entry.getKey();
-                final String accountName = entry.getValue();
-                for (Iterator<Map.Entry<CloudBeesUser, String>> i = pendingStatus.iterator(); i.hasNext(); ) {
-                    Map.Entry<CloudBeesUser, String> e = i.next();
-                    if (e.getValue().equals(accountName) && e.getKey().getName().equals(user.getName())) {
-                        i.remove();
-                    }
+                LOGGER.log(FINE, "Deferred health check for {0}: {1}", new Object[]{accountName, e.getMessage()});
+            }
+        }
+
+        /**
+         * Schedules the next health check of an account shortly before its status goes stale, if it is being
+         * viewed.
+         */
+        private static void scheduleRefreshAhead(final CloudBeesUser user, final String accountName) {
+            if (!isViewed(accountName)) {
+                ScheduledFuture<?> previous = refreshAhead.remove(accountName);
+                if (previous != null) {
+                    previous.cancel(false);
                 }
-                CloudBeesUserImpl.threadPoolForUpdating.submit(new Runnable() {
-                    public void run() {
-                        long expire = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
-                        boolean addContributors = true;
-                        if (null != inProgress.putIfAbsent(accountName, Boolean.TRUE)) {
-                            LOGGER.log(FINE, "Health check for {0} already in progress", accountName);
-                            return;
-                        }
-                        LOGGER.log(FINE, "Starting Health check for {0}", accountName);
-                        try {
-                            List<DataPoint> result = new ArrayList<DataPoint>();
-                            AsyncHttpClientConfig.Builder httpClientConfig =
-                                    new AsyncHttpClientConfig.Builder()
-                                            .setRequestTimeoutInMs(25000)
-                                            .setProxyServer(AHCUtils.getProxyServer());
-                            AsyncHttpClient gcClient = new AsyncHttpClient(httpClientConfig.build());
-                            try {
-                                String uid = user.getUID();
-                                String apiKey = user.getAPIKey();
-                                ListenableFuture<List<StatusLine>> futureHealthResponse = null;
-                                if (uid != null) {
-                                    LOGGER.log(Level.FINER, "Getting remaining minutes for {0}", accountName);
-                                    try {
-                                        futureHealthResponse = ApiAccountHealthStatusHandler
-                                                .executeRequest(gcClient,
-                                                        ApiAccountHealthStatusHandler.Authentication.UID, uid,
-                                                        accountName);
-                                        // request can trundle along in background
-                                    } catch (ConnectException e) {
-                                        throw e;
-                                    } catch (IOException e) {
-                                        LOGGER.log(FINE, e.getMessage(), e);
-                                    }
-                                }
-                                if (futureHealthResponse == null && user instanceof CloudBeesUserWithAccountApiKey) {
-                                    String accountApiKey =
-                                            CloudBeesUserWithAccountApiKey.class.cast(user).getAccountApiKey();
-                                    if (accountApiKey != null) {
-                                        LOGGER.log(Level.FINER, "Getting remaining minutes for {0}", accountName);
-                                        try {
-                                            futureHealthResponse = ApiAccountHealthStatusHandler
-                                                    .executeRequest(gcClient,
-                                                            ApiAccountHealthStatusHandler.Authentication
-                                                                    .ACCOUNT_API_KEY,
-                                                            accountApiKey, accountName);
-                                            // request can trundle along in background
-                                        } catch (ConnectException e) {
-                                            throw e;
-                                        } catch (IOException e) {
-                                            LOGGER.log(FINE, e.getMessage(), e);
-                                        }
-                                    }
-                                }
-                                if (futureHealthResponse != null) {
-                                    result.addAll(
-                                            futureHealthResponse.get(Math.max(1, expire - System.currentTimeMillis()),
-                                                    TimeUnit.MILLISECONDS));
-                                    LOGGER.log(Level.FINER, "Got health response for {0}", accountName);
-                                }
-                                addContributors = false; // from this point onwards, don't try and re-add them
-                                for (DataPointContributor dpc : DataPointContributor.all()) {
-                                    try {
-                                        dpc.collect(user,accountName,result);
-                                    } catch (Throwable e) {
-                                        LOGGER.log(FINE, "Collector " + dpc + " threw: " + e.getMessage(), e);
-                                        if (System.currentTimeMillis() > expire) {
-                                            // we have taken too long already
-                                            throw e;
-                                        }
-                                    }
-                                }
-                                statusCache.put(accountName, new StatusCacheEntry(result));
-                            } catch (InterruptedException e) {
-                                LOGGER.log(FINE, e.getMessage(), e);
-                            } catch (ExecutionException e) {
-                                StatusLine sl;
-                                if (e.getCause() instanceof ConnectException) {
-                                    sl = new StatusLine("status-offline.png", "app.offline", 0L);
-                                } else {
-                                    sl = new StatusLine("status-ioerror.png", "app.ioerror", 0L);
-                                }
-                                onError(e,sl, expire, addContributors, result);
-                            } catch (TimeoutException e) {
-                                LOGGER.log(FINE, e.getMessage(), e);
-                            } catch (ConnectException e) {
-                                onError(e, new StatusLine("status-offline.png", "app.offline", 0L), expire, addContributors, result);
-                            } catch (IOException e) {
-                                onError(e, new StatusLine("status-ioerror.png", "app.ioerror", 0L), expire, addContributors, result);
-                            } catch (Throwable e) {
-                                LOGGER.log(FINE, e.getMessage(), e);
-                            } finally {
-                                gcClient.close();
-                            }
-                        } finally {
-                            inProgress.remove(accountName);
-                            LOGGER.log(FINE, "Finished Health check for {0}", accountName);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long delay = RefreshScheduler.refreshAhead(now, TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS)) - now;
+            ScheduledFuture<?> next = Timer.get().schedule(new Runnable() {
+                public void run() {
+                    if (isViewed(accountName)) {
+                        StatusCacheEntry cached = statusCache.get(accountName);
+                        if (cached != null) {
+                            cached.requested = true;
                         }
+                        enqueue(user, accountName);
                     }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            ScheduledFuture<?> previous = refreshAhead.put(accountName, next);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+        }
+
+        /**
+         * Runs on {@link Bulkhead#STATUS} and waits for its own query, so the threads of the bulkhead bound how many
+         * health queries are in flight at once.
+         */
+        private static class HealthCheck implements Runnable {
+            private final String key;
+            private final CloudBeesUser user;
+            private final String accountName;
+
+            private HealthCheck(String key, CloudBeesUser user, String accountName) {
+                this.key = key;
+                this.user = user;
+                this.accountName = accountName;
+            }
 
-                    private void onError(Throwable e, StatusLine sl, long expire, boolean addContributors, List<DataPoint> result) {
-                        result.add(sl);
-                        if (addContributors) {
-                            for (DataPointContributor dpc : DataPointContributor.all()) {
-                                try {
-                                    dpc.collect(user, accountName, result);
-                                } catch (Throwable e1) {
-                                    LOGGER.log(FINE, e1.getMessage(), e1);
-                                    if (System.currentTimeMillis() > expire) {
-                                        // we have taken too long already
-                                        break;
-                                    }
-                                }
-                            }
+            /**
+             * Queries the health status of an account.
+             *
+             * @return the future status lines or {@code null} if the user has nothing to query with.
+             * @throws IOException if the query could not be sent, or the circuit of the endpoint is open.
+             */
+            private static Future<List<StatusLine>> queryHealth(CloudBeesUser user, String accountName)
+                    throws IOException {
+                AsyncHttpClient gcClient = SharedAsyncHttpClient.get();
+                String uid = user.getUID();
+                if (uid != null) {
+                    LOGGER.log(Level.FINER, "Getting remaining minutes for {0}", accountName);
+                    return ApiAccountHealthStatusHandler.executeRequest(gcClient,
+                            ApiAccountHealthStatusHandler.Authentication.UID, uid, accountName);
+                }
+                if (user instanceof CloudBeesUserWithAccountApiKey) {
+                    String accountApiKey = CloudBeesUserWithAccountApiKey.class.cast(user).getAccountApiKey();
+                    if (accountApiKey != null) {
+                        LOGGER.log(Level.FINER, "Getting remaining minutes for {0}", accountName);
+                        return ApiAccountHealthStatusHandler.executeRequest(gcClient,
+                                ApiAccountHealthStatusHandler.Authentication.ACCOUNT_API_KEY, accountApiKey,
+                                accountName);
+                    }
+                }
+                return null;
+            }
+
+
+            public void run() {
+                // from now on, asking for an update again starts a new health check
+                pendingStatus.remove(key);
+                long expire = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+                boolean addContributors = true;
+                if (null != inProgress.putIfAbsent(accountName, Boolean.TRUE)) {
+                    LOGGER.log(FINE, "Health check for {0} already in progress", accountName);
+                    return;
+                }
+                LOGGER.log(FINE, "Starting Health check for {0}", accountName);
+                try {
+                    List<DataPoint> result = new ArrayList<DataPoint>();
+                    try {
+                        Future<List<StatusLine>> health = queryHealth(user, accountName);
+                        if (health != null) {
+                            result.addAll(
+                                    health.get(Math.max(1, expire - System.currentTimeMillis()),
+                                            TimeUnit.MILLISECONDS));
+                            LOGGER.log(Level.FINER, "Got health response for {0}", accountName);
                         }
-                        statusCache.put(accountName, new StatusCacheEntry(result));
+                        addContributors = false; // from this point onwards, don't try and re-add them
+                        putStatus(accountName,
+                                new StatusCacheEntry(result, DataPointContributors.collect(user, accountName, expire)));
+                    } catch (InterruptedException e) {
                         LOGGER.log(FINE, e.getMessage(), e);
+                    } catch (CircuitBreakerOpenException e) {
+                        failFast(e, expire, addContributors, result);
+                    } catch (ConnectException e) {
+                        onError(e, new StatusLine("status-offline.png", "app.offline", 0L), expire, addContributors,
+                                result);
+                    } catch (IOException e) {
+                        onError(e, new StatusLine("status-ioerror.png", "app.ioerror", 0L), expire, addContributors,
+                                result);
+                    } catch (ExecutionException e) {
+                        StatusLine sl;
+                        if (e.getCause() instanceof CircuitBreakerOpenException) {
+                            failFast(e.getCause(), expire, addContributors, result);
+                            return;
+                        } else if (e.getCause() instanceof ConnectException) {
+                            sl = new StatusLine("status-offline.png", "app.offline", 0L);
+                        } else {
+                            sl = new StatusLine("status-ioerror.png", "app.ioerror", 0L);
+                        }
+                        onError(e,sl, expire, addContributors, result);
+                    } catch (TimeoutException e) {
+                        LOGGER.log(FINE, e.getMessage(), e);
+                    } catch (Throwable e) {
+                        LOGGER.log(FINE, e.getMessage(), e);
+                    }
+                } finally {
+                    inProgress.remove(accountName);
+                    scheduleRefreshAhead(user, accountName);
+                    LOGGER.log(FINE, "Finished Health check for {0}", accountName);
+                }
+            }
+
+            private void failFast(Throwable e, long expire, boolean addContributors, List<DataPoint> result) {
+                // fail fast to the cached status if we have one
+                StatusCacheEntry cached = statusCache.get(accountName);
+                if (cached != null) {
+                    cached.requested = false;
+                    LOGGER.log(FINE, e.getMessage(), e);
+                } else {
+                    onError(e, new StatusLine("status-offline.png", "app.offline", 0L), expire, addContributors,
+                            result);
+                }
+            }
+
+            private void onError(Throwable e, StatusLine sl, long expire, boolean addContributors, List<DataPoint> result) {
+                result.add(sl);
+                List<DataPoint> contributed = Collections.emptyList();
+                if (addContributors) {
+                    try {
+                        contributed = DataPointContributors.collect(user, accountName, expire);
+                    } catch (InterruptedException e1) {
+                        LOGGER.log(FINE, e1.getMessage(), e1);
+                        Thread.currentThread().interrupt();
                     }
-                });
+                }
+                putStatus(accountName, new StatusCacheEntry(result, contributed));
+                LOGGER.log(FINE, e.getMessage(), e);
+            }
+
+            @Override
+            public String toString() {
+                return "Health check for " + accountName;
             }
         }
     }
-}
+}
\ No newline at end of file
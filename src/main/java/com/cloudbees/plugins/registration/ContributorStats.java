@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The latency, errors and timeouts of one {@link DataPointContributor} or {@link AsyncDataPointContributor}.
+ * A contributor that blows its budget several times in a row is quarantined: it is skipped until a cool-down
+ * period has passed.
+ *
+ * <p>
+ * The budget of {@link DataPointContributor#collect} is {@link DataPointContributors#TIMEOUT_SECONDS}. The budget
+ * of {@link DataPointContributor#collectSync}, the number of overruns in a row that trigger a quarantine and the
+ * length of the quarantine can be tuned with the system properties
+ * {@code com.cloudbees.plugins.registration.ContributorStats.syncBudgetMillis} (default 100),
+ * {@code com.cloudbees.plugins.registration.ContributorStats.quarantineThreshold} (default 3) and
+ * {@code com.cloudbees.plugins.registration.ContributorStats.quarantineSeconds} (default 600).
+ */
+public final class ContributorStats {
+
+    private static final Logger LOGGER = Logger.getLogger(ContributorStats.class.getName());
+
+    private static final String PREFIX = ContributorStats.class.getName();
+
+    /**
+     * How long {@link DataPointContributor#collectSync} may take before it counts as an overrun.
+     */
+    public static final int SYNC_BUDGET_MILLIS = Math.max(1, Integer.getInteger(PREFIX + ".syncBudgetMillis", 100));
+
+    /**
+     * The number of overruns in a row that quarantine a contributor.
+     */
+    public static final int QUARANTINE_THRESHOLD =
+            Math.max(1, Integer.getInteger(PREFIX + ".quarantineThreshold", 3));
+
+    /**
+     * How long a quarantined contributor is skipped.
+     */
+    public static final int QUARANTINE_SECONDS = Math.max(0, Integer.getInteger(PREFIX + ".quarantineSeconds", 600));
+
+    private final String name;
+
+    private final Histogram collectLatency = new Histogram();
+
+    private final Histogram collectSyncLatency = new Histogram();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong quarantineCount = new AtomicLong();
+
+    private int consecutiveOverruns;
+
+    private long quarantinedUntil;
+
+    ContributorStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getCollectLatency() {
+        return collectLatency;
+    }
+
+    public Histogram getCollectSyncLatency() {
+        return collectSyncLatency;
+    }
+
+    /**
+     * Returns the number of calls that threw.
+     *
+     * @return the number of calls that threw.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns the number of {@link DataPointContributor#collect} calls that were cancelled for taking too long.
+     *
+     * @return the number of calls cancelled.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the number of times the contributor has been quarantined.
+     *
+     * @return the number of quarantines.
+     */
+    public long getQuarantineCount() {
+        return quarantineCount.get();
+    }
+
+    /**
+     * Returns whether the contributor is being skipped.
+     *
+     * @return {@code true} if the contributor is quarantined.
+     */
+    public synchronized boolean isQuarantined() {
+        return System.currentTimeMillis() < quarantinedUntil;
+    }
+
+    /**
+     * Returns how long the contributor will still be skipped.
+     *
+     * @return the remaining quarantine in milliseconds, {@code 0} if not quarantined.
+     */
+    public synchronized long getQuarantineRemainingMillis() {
+        return Math.max(0, quarantinedUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Records a call of {@link DataPointContributor#collect}, whether or not it was waited for.
+     *
+     * @param nanos  how long it took.
+     * @param failed whether it threw.
+     */
+    void onCollect(long nanos, boolean failed) {
+        collectLatency.record(nanos);
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a call of {@link DataPointContributor#collect} that completed within its budget.
+     */
+    synchronized void onCollectInTime() {
+        consecutiveOverruns = 0;
+    }
+
+    /**
+     * Records a call of {@link DataPointContributor#collect} that was cancelled for taking too long.
+     */
+    void onCollectTimeout() {
+        timeoutCount.incrementAndGet();
+        overrun();
+    }
+
+    /**
+     * Records a call of {@link DataPointContributor#collectSync}.
+     *
+     * @param nanos  how long it took.
+     * @param failed whether it threw.
+     */
+    void onCollectSync(long nanos, boolean failed) {
+        collectSyncLatency.record(nanos);
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(nanos) > SYNC_BUDGET_MILLIS) {
+            overrun();
+        } else {
+            synchronized (this) {
+                consecutiveOverruns = 0;
+            }
+        }
+    }
+
+    private synchronized void overrun() {
+        if (++consecutiveOverruns < QUARANTINE_THRESHOLD || QUARANTINE_SECONDS == 0) {
+            return;
+        }
+        consecutiveOverruns = 0;
+        quarantinedUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(QUARANTINE_SECONDS);
+        quarantineCount.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Data point contributor {0} has taken too long {1} times in a row, skipping it "
+                + "for the next {2}s", new Object[]{name, QUARANTINE_THRESHOLD, QUARANTINE_SECONDS});
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ContributorStats{" + name
+                + ", collect=" + collectLatency
+                + ", collectSync=" + collectSyncLatency
+                + ", errors=" + getErrorCount()
+                + ", timeouts=" + getTimeoutCount()
+                + ", quarantined=" + isQuarantined()
+                + '}';
+    }
+
+    /**
+     * A latency histogram with fixed buckets.
+     */
+    public static final class Histogram {
+
+        /**
+         * The upper bounds of the buckets in milliseconds, the last bucket takes everything above.
+         */
+        private static final long[] BOUNDS_MILLIS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        private void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            do {
+                max = maxNanos.get();
+            } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+        }
+
+        /**
+         * Returns the number of calls recorded.
+         *
+         * @return the number of calls.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns the average time of the calls.
+         *
+         * @return the average time in milliseconds.
+         */
+        public long getAverageMillis() {
+            long count = this.count.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count);
+        }
+
+        /**
+         * Returns the longest time of any call.
+         *
+         * @return the longest time in milliseconds.
+         */
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        public long getMedianMillis() {
+            return getPercentileMillis(0.5);
+        }
+
+        public long getPercentile95Millis() {
+            return getPercentileMillis(0.95);
+        }
+
+        public long getPercentile99Millis() {
+            return getPercentileMillis(0.99);
+        }
+
+        /**
+         * Returns the upper bound of the bucket that holds a percentile of the calls.
+         *
+         * @param fraction the percentile as a fraction.
+         * @return the upper bound in milliseconds, capped by the longest time of any call.
+         */
+        public long getPercentileMillis(double fraction) {
+            long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(BOUNDS_MILLIS[i], getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", avg=" + getAverageMillis() + "ms, p95=" + getPercentile95Millis()
+                    + "ms, max=" + getMaxMillis() + "ms";
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import hudson.Util;
+import hudson.util.Secret;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+/**
+ * Computes salted digests of CloudBees logins so that they can be used as keys without holding on to the password.
+ * The salt is never written out, so the fingerprints are only meaningful within this JVM.
+ */
+public final class CredentialFingerprint {
+
+    /**
+     * The salt of the fingerprints.
+     */
+    private static final byte[] JVM_SALT = newSalt();
+
+    private CredentialFingerprint() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Normalizes an email address so that differently typed copies of the same login compare equal.
+     *
+     * @param email the email address.
+     * @return the normalized email address.
+     */
+    public static String normalize(String email) {
+        return Util.fixNull(email).trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Computes the fingerprint of a login with the salt of this JVM.
+     *
+     * @param email    the email address.
+     * @param password the password.
+     * @return the fingerprint.
+     */
+    public static String of(String email, Secret password) {
+        return of(JVM_SALT, email, password);
+    }
+
+    private static String of(byte[] salt, String email, Secret password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(normalize(email).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(Secret.toString(password).getBytes("UTF-8"));
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory algorithm", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is a mandatory encoding", e);
+        }
+    }
+
+    private static byte[] newSalt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes all the {@link CloudBeesUserImpl} credentials in the background while Jenkins starts, so that the first
+ * builds and the first widget render do not have to wait for Grand Central. The refreshes go through
+ * {@link Bulkhead#CREDENTIALS}, which bounds how many run at the same time; the credentials it has no room for are
+ * skipped and left to the {@link RefreshScheduler}.
+ *
+ * <p>
+ * The deadline after which the credentials still being refreshed are counted as skipped can be tuned with the system
+ * property {@code com.cloudbees.plugins.registration.CredentialWarmUp.deadlineSeconds} (default 30), {@code 0}
+ * disables the warm-up.
+ */
+public final class CredentialWarmUp {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialWarmUp.class.getName());
+
+    private static final String PREFIX = CredentialWarmUp.class.getName();
+
+    /**
+     * How long to wait for the warm-up to complete before reporting on it.
+     */
+    public static final int DEADLINE_SECONDS = Math.max(0, Integer.getInteger(PREFIX + ".deadlineSeconds", 30));
+
+    private static volatile long started;
+
+    private static volatile long finished;
+
+    private static volatile int total;
+
+    private static final AtomicInteger fresh = new AtomicInteger();
+
+    private static final AtomicInteger stale = new AtomicInteger();
+
+    private static final AtomicInteger skipped = new AtomicInteger();
+
+    private CredentialWarmUp() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmUp() {
+        if (DEADLINE_SECONDS == 0) {
+            return;
+        }
+        started = System.currentTimeMillis();
+        Set<CloudBeesUserImpl> users =
+                Collections.newSetFromMap(new IdentityHashMap<CloudBeesUserImpl, Boolean>());
+        // the system store, and whatever other stores have been loaded by now; the per-user stores are left to load
+        // when they are used rather than loading every user record here
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            users.addAll(CredentialsProvider.lookupCredentials(CloudBeesUserImpl.class, jenkins, ACL.SYSTEM));
+        }
+        users.addAll(CloudBeesUserImpl.instances());
+        total = users.size();
+        LOGGER.log(Level.INFO, "Refreshing {0} CloudBees credentials", users.size());
+        final List<Outcome> pending = new ArrayList<Outcome>();
+        for (CloudBeesUserImpl user : users) {
+            ListenableFuture<?> refresh = user.isFresh() ? null : user.refreshInBackground();
+            if (refresh == null) {
+                // either fresh already, or the bulkhead is saturated and the scheduler will get to it
+                (user.hasDerivedFields() ? fresh : skipped).incrementAndGet();
+                continue;
+            }
+            Outcome outcome = new Outcome(user, pending);
+            pending.add(outcome);
+            refresh.addListener(outcome, MoreExecutors.sameThreadExecutor());
+        }
+        if (pending.isEmpty()) {
+            finish();
+            return;
+        }
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                for (Outcome outcome : pending) {
+                    outcome.skip();
+                }
+                finish();
+            }
+        }, DEADLINE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static synchronized void finish() {
+        if (finished != 0) {
+            return;
+        }
+        finished = System.currentTimeMillis();
+        LOGGER.log(Level.INFO, "Refreshed {0} of {1} CloudBees credentials in {2}ms ({3} skipped)",
+                new Object[]{fresh.get(), total, finished - started, skipped.get()});
+    }
+
+    /**
+     * Counts the refresh of one credential exactly once, either when it completes or when the deadline passes.
+     */
+    private static final class Outcome implements Runnable {
+        private final CloudBeesUserImpl user;
+        private final List<Outcome> all;
+        private final AtomicBoolean counted = new AtomicBoolean();
+
+        private Outcome(CloudBeesUserImpl user, List<Outcome> all) {
+            this.user = user;
+            this.all = all;
+        }
+
+        public void run() {
+            if (counted.compareAndSet(false, true)) {
+                // only count it once the keys and the accounts are actually there
+                (user.hasDerivedFields() ? fresh : stale).incrementAndGet();
+                if (fresh.get() + stale.get() + skipped.get() == total) {
+                    finish();
+                }
+            }
+        }
+
+        private void skip() {
+            if (counted.compareAndSet(false, true)) {
+                skipped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns when the warm-up started.
+     *
+     * @return the timestamp or {@code 0} if it has not started.
+     */
+    public static long getStarted() {
+        return started;
+    }
+
+    /**
+     * Returns when the warm-up finished.
+     *
+     * @return the timestamp or {@code 0} if it has not finished.
+     */
+    public static long getFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns how long the warm-up took, or has taken so far.
+     *
+     * @return the duration in milliseconds.
+     */
+    public static long getDuration() {
+        long started = CredentialWarmUp.started;
+        if (started == 0) {
+            return 0;
+        }
+        long finished = CredentialWarmUp.finished;
+        return (finished == 0 ? System.currentTimeMillis() : finished) - started;
+    }
+
+    /**
+     * Returns the number of credentials being warmed up.
+     *
+     * @return the number of credentials.
+     */
+    public static int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of credentials that were refreshed.
+     *
+     * @return the number of credentials.
+     */
+    public static int getFresh() {
+        return fresh.get();
+    }
+
+    /**
+     * Returns the number of credentials whose refresh completed without resolving them.
+     *
+     * @return the number of credentials.
+     */
+    public static int getStale() {
+        return stale.get();
+    }
+
+    /**
+     * Returns the number of credentials that were not refreshed, either because there was no room for them or
+     * because their refresh had not completed by the deadline.
+     *
+     * @return the number of credentials.
+     */
+    public static int getSkipped() {
+        return skipped.get();
+    }
+}
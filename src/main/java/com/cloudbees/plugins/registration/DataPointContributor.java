@@ -34,6 +34,10 @@ import java.util.List;
 /**
  * Contributes additional {@link DataPoint}s into {@link CloudBeesWidget}.
  *
+ * <p>
+ * New contributors that do not need to block, or that need a different refresh cadence, should extend
+ * {@link AsyncDataPointContributor} instead.
+ *
  * @author Kohsuke Kawaguchi
  */
 public abstract class DataPointContributor implements ExtensionPoint {
@@ -45,6 +49,10 @@ public abstract class DataPointContributor implements ExtensionPoint {
      * in a background without blocking the HTTP request handling thread.
      * This design allows this method to perform slow I/O if needed.
      *
+     * <p>
+     * The contributors are called in parallel, each with its own {@code result} list. A contributor that takes
+     * longer than {@link DataPointContributors#TIMEOUT_SECONDS} is interrupted and its data points are dropped.
+     *
      * @param user
      *      User account registered with Jenkins. Never null.
      * @param accountName
@@ -61,6 +69,10 @@ public abstract class DataPointContributor implements ExtensionPoint {
      * <p>
      * This is suitable when your data point can be computed without incurring I/O, and you need to
      * be able to update values more frequently than the 2 mins cycles of {@link #collect(CloudBeesUser, String, List)}
+     *
+     * <p>
+     * A contributor that repeatedly takes longer than {@link ContributorStats#SYNC_BUDGET_MILLIS} here, or times out
+     * in {@link #collect(CloudBeesUser, String, List)}, is skipped for a while.
      */
     public abstract void collectSync(CloudBeesUser user, String accountName, List<DataPoint> result);
 
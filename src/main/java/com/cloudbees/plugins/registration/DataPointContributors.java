@@ -0,0 +1,405 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the data points of every {@link AsyncDataPointContributor}, including the {@link DataPointContributor}s
+ * through their adapter. The contributors run in parallel and each has its own deadline, so a slow or hanging
+ * contributor is cancelled instead of holding up the others. The data points are merged in the order of the
+ * extensions.
+ *
+ * <p>
+ * The output of each contributor is cached per account and user, and only collected again once it is older than
+ * the {@link AsyncDataPointContributor#getTtlSeconds() time to live} of the contributor. A contributor that fails
+ * or misses its deadline is represented by its last output, if it has one.
+ *
+ * <p>
+ * The calls are recorded in the {@link ContributorStats} of each contributor, and contributors that are in
+ * quarantine are skipped, both here and in {@link #collectSync(CloudBeesUser, String, List)}.
+ *
+ * <p>
+ * The deadline of each contributor can be tuned with the system property
+ * {@code com.cloudbees.plugins.registration.DataPointContributors.timeoutSeconds} (default 10).
+ */
+public final class DataPointContributors {
+
+    private static final Logger LOGGER = Logger.getLogger(DataPointContributors.class.getName());
+
+    /**
+     * How long each contributor may take to collect its data points.
+     */
+    public static final int TIMEOUT_SECONDS =
+            Math.max(1, Integer.getInteger(DataPointContributors.class.getName() + ".timeoutSeconds", 10));
+
+    /**
+     * The statistics of the contributors, keyed by name.
+     */
+    private static final ConcurrentMap<String, ContributorStats> stats =
+            new ConcurrentHashMap<String, ContributorStats>();
+
+    /**
+     * The last output of each contributor, keyed by {@link #key(AsyncDataPointContributor, CloudBeesUser, String)}.
+     * Outputs nobody has asked for in an hour are dropped.
+     */
+    private static final ConcurrentMap<String, Output> outputs = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .<String, Output>build()
+            .asMap();
+
+    /**
+     * The collections under way, keyed like {@link #outputs}.
+     */
+    private static final ConcurrentMap<String, ListenableFuture<List<DataPoint>>> inFlight =
+            new ConcurrentHashMap<String, ListenableFuture<List<DataPoint>>>();
+
+    private DataPointContributors() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Collects the data points of every contributor for an account, collecting again the outputs that are stale.
+     *
+     * @param user        the user.
+     * @param accountName the account.
+     * @param expire      when the data points are needed by, no contributor is waited for beyond this.
+     * @return the data points, in the order of the extensions.
+     * @throws InterruptedException if interrupted while waiting for the contributors.
+     */
+    public static List<DataPoint> collect(CloudBeesUser user, String accountName, long expire)
+            throws InterruptedException {
+        List<AsyncDataPointContributor> contributors = AsyncDataPointContributor.all();
+        List<ListenableFuture<List<DataPoint>>> futures =
+                new ArrayList<ListenableFuture<List<DataPoint>>>(contributors.size());
+        // the collections started by this call, as opposed to those shared with another caller
+        List<ListenableFuture<List<DataPoint>>> started = new ArrayList<ListenableFuture<List<DataPoint>>>();
+        long now = System.currentTimeMillis();
+        long budget = now + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        long deadline = Math.min(expire, budget);
+        for (AsyncDataPointContributor contributor : contributors) {
+            Output output = outputs.get(key(contributor, user, accountName));
+            boolean fresh = output != null && output.isFresh(contributor, now);
+            if (fresh || statsOf(contributor.getName()).isQuarantined()) {
+                futures.add(null);
+            } else {
+                ListenableFuture<List<DataPoint>> future = refresh(contributor, user, accountName);
+                if (future != null) {
+                    started.add(future);
+                } else {
+                    future = inFlight.get(key(contributor, user, accountName));
+                }
+                futures.add(future);
+            }
+        }
+        List<DataPoint> result = new ArrayList<DataPoint>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                AsyncDataPointContributor contributor = contributors.get(i);
+                ContributorStats stats = statsOf(contributor.getName());
+                if (stats.isQuarantined()) {
+                    continue;
+                }
+                ListenableFuture<List<DataPoint>> future = futures.get(i);
+                if (future != null) {
+                    try {
+                        List<DataPoint> value =
+                                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                        if (value != null) {
+                            result.addAll(value);
+                        }
+                        stats.onCollectInTime();
+                        continue;
+                    } catch (ExecutionException e) {
+                        stats.onCollectInTime();
+                        LOGGER.log(Level.FINE, "Collector " + contributor + " threw: " + e.getCause(),
+                                e.getCause());
+                    } catch (TimeoutException e) {
+                        if (started.contains(future)) {
+                            future.cancel(true);
+                            if (deadline == budget) {
+                                // only count it against the contributor if it had its whole budget
+                                stats.onCollectTimeout();
+                            }
+                            LOGGER.log(Level.WARNING, "Collector {0} did not collect the data points of {1} in "
+                                    + "time, cancelled it", new Object[]{contributor, accountName});
+                        } else {
+                            // shared with another caller, which enforces its own deadline
+                            LOGGER.log(Level.FINE, "Collector {0} is still collecting the data points of {1}",
+                                    new Object[]{contributor, accountName});
+                        }
+                    } catch (CancellationException e) {
+                        LOGGER.log(Level.FINE, "Collector {0} was cancelled", contributor);
+                    }
+                }
+                Output output = outputs.get(key(contributor, user, accountName));
+                if (output != null) {
+                    result.addAll(output.value);
+                }
+            }
+        } finally {
+            // when interrupted, do not leave the remaining contributors running, but only those this call started
+            for (ListenableFuture<List<DataPoint>> future : started) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the last output of every contributor for an account, without collecting anything.
+     *
+     * @param user        the user.
+     * @param accountName the account.
+     * @return the data points, in the order of the extensions.
+     */
+    public static List<DataPoint> cached(CloudBeesUser user, String accountName) {
+        List<DataPoint> result = new ArrayList<DataPoint>();
+        for (AsyncDataPointContributor contributor : AsyncDataPointContributor.all()) {
+            if (statsOf(contributor.getName()).isQuarantined()) {
+                continue;
+            }
+            Output output = outputs.get(key(contributor, user, accountName));
+            if (output != null) {
+                result.addAll(output.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects again, in the background, the stale outputs of the {@link AsyncDataPointContributor.Cost#CHEAP}
+     * contributors for an account.
+     *
+     * @param user        the user.
+     * @param accountName the account.
+     * @param onChange    called once a new output is in, from the thread that collected it.
+     */
+    public static void refreshCheap(final CloudBeesUser user, final String accountName, final Runnable onChange) {
+        long now = System.currentTimeMillis();
+        for (final AsyncDataPointContributor contributor : AsyncDataPointContributor.all()) {
+            if (contributor.getCost() != AsyncDataPointContributor.Cost.CHEAP) {
+                continue;
+            }
+            String key = key(contributor, user, accountName);
+            Output output = outputs.get(key);
+            if ((output != null && output.isFresh(contributor, now)) || inFlight.containsKey(key)
+                    || statsOf(contributor.getName()).isQuarantined()) {
+                continue;
+            }
+            try {
+                Bulkhead.CONTRIBUTORS.execute(new Runnable() {
+                    public void run() {
+                        final ListenableFuture<List<DataPoint>> future = refresh(contributor, user, accountName);
+                        if (future == null) {
+                            return;
+                        }
+                        future.addListener(new Runnable() {
+                            public void run() {
+                                if (!future.isCancelled()) {
+                                    onChange.run();
+                                }
+                            }
+                        }, MoreExecutors.sameThreadExecutor());
+                        // nobody waits for it, so enforce the deadline here
+                        Timer.get().schedule(new Runnable() {
+                            public void run() {
+                                if (future.cancel(true)) {
+                                    statsOf(contributor.getName()).onCollectTimeout();
+                                    LOGGER.log(Level.WARNING, "Collector {0} did not collect the data points of "
+                                            + "{1} in time, cancelled it", new Object[]{contributor, accountName});
+                                }
+                            }
+                        }, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.FINE, "Skipped collector {0} for {1}: {2}",
+                        new Object[]{contributor, accountName, e.getMessage()});
+            }
+        }
+    }
+
+    /**
+     * Starts collecting the output of a contributor, unless it is already being collected.
+     *
+     * @return the future output or {@code null} if the contributor is already being collected or could not be
+     *         started.
+     */
+    private static ListenableFuture<List<DataPoint>> refresh(AsyncDataPointContributor contributor,
+                                                            CloudBeesUser user, String accountName) {
+        final String key = key(contributor, user, accountName);
+        final SettableFuture<List<DataPoint>> result = SettableFuture.create();
+        if (inFlight.putIfAbsent(key, result) != null) {
+            return null;
+        }
+        final ContributorStats stats = statsOf(contributor.getName());
+        final long start = System.nanoTime();
+        final ListenableFuture<List<DataPoint>> future;
+        try {
+            future = contributor.collect(user, accountName);
+            if (future == null) {
+                throw new IllegalStateException(contributor + " returned no future");
+            }
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, result);
+            LOGGER.log(Level.FINE, "Skipped collector {0} for {1}: {2}",
+                    new Object[]{contributor, accountName, e.getMessage()});
+            return null;
+        } catch (RuntimeException e) {
+            inFlight.remove(key, result);
+            stats.onCollect(System.nanoTime() - start, true);
+            LOGGER.log(Level.FINE, "Collector " + contributor + " threw: " + e.getMessage(), e);
+            return null;
+        }
+        future.addListener(new Runnable() {
+            public void run() {
+                boolean failed = true;
+                try {
+                    List<DataPoint> value = future.get();
+                    failed = false;
+                    outputs.put(key, new Output(value));
+                    result.set(value);
+                } catch (ExecutionException e) {
+                    result.setException(e.getCause() == null ? e : e.getCause());
+                } catch (CancellationException e) {
+                    failed = false;
+                    result.cancel(false);
+                } catch (InterruptedException e) {
+                    // cannot happen, the future is complete
+                    result.setException(e);
+                } finally {
+                    stats.onCollect(System.nanoTime() - start, failed);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        result.addListener(new Runnable() {
+            public void run() {
+                inFlight.remove(key, result);
+                if (result.isCancelled()) {
+                    // pass the cancellation on so that a hanging contributor is interrupted
+                    future.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    private static String key(AsyncDataPointContributor contributor, CloudBeesUser user, String accountName) {
+        return contributor.getName() + '\n' + accountName + '\n' + user.getName();
+    }
+
+    /**
+     * Collects the data points of every contributor that can compute them without I/O, on the calling thread.
+     *
+     * @param user        the user.
+     * @param accountName the account.
+     * @param result      the list to add the data points to.
+     */
+    public static void collectSync(CloudBeesUser user, String accountName, List<DataPoint> result) {
+        for (DataPointContributor dpc : DataPointContributor.all()) {
+            ContributorStats stats = statsOf(dpc.getClass().getName());
+            if (stats.isQuarantined()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                dpc.collectSync(user, accountName, result);
+                failed = false;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Collector " + dpc + " threw: " + e.getMessage(), e);
+            } finally {
+                stats.onCollectSync(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the contributors seen so far.
+     *
+     * @return the statistics, sorted by name.
+     */
+    public static List<ContributorStats> getStats() {
+        List<ContributorStats> result = new ArrayList<ContributorStats>(stats.values());
+        Collections.sort(result, new Comparator<ContributorStats>() {
+            public int compare(ContributorStats o1, ContributorStats o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return result;
+    }
+
+    private static ContributorStats statsOf(String name) {
+        ContributorStats result = stats.get(name);
+        if (result == null) {
+            ContributorStats created = new ContributorStats(name);
+            result = stats.putIfAbsent(name, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The data points a contributor collected and when.
+     */
+    private static final class Output {
+        private final List<DataPoint> value;
+        private final long timestamp;
+
+        private Output(List<DataPoint> value) {
+            this.value = value == null
+                    ? Collections.<DataPoint>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<DataPoint>(value));
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        private boolean isFresh(AsyncDataPointContributor contributor, long now) {
+            return timestamp + TimeUnit.SECONDS.toMillis(contributor.getTtlSeconds()) > now;
+        }
+    }
+}
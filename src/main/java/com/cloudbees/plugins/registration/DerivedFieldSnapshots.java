@@ -0,0 +1,291 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.security.HMACConfidentialKey;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The last known good values of the fields that {@link CloudBeesUserImpl} derives from Grand Central and does not
+ * keep in the credentials store, so that a restart does not force every credential to be resolved from scratch
+ * before it can be used.
+ *
+ * <p>
+ * Snapshots are keyed by a MAC of the login under a key that is kept with the other secrets of Jenkins rather than
+ * in this file, so that the file cannot be used to guess the passwords. Credentials with the same email address and
+ * different passwords each have their own snapshot, which is only handed back to a credential with the same email
+ * address and password. Snapshots that no live credential uses are dropped once they are older than
+ * a day, so that those of credentials whose store has not been loaded yet survive a restart.
+ *
+ * <p>
+ * The snapshots do not hold the API key and secret nor the accounts, so a restored credential is not considered
+ * fresh and is refreshed shortly after it is loaded.
+ */
+public final class DerivedFieldSnapshots {
+
+    private static final Logger LOGGER = Logger.getLogger(DerivedFieldSnapshots.class.getName());
+
+    /**
+     * How long to batch up changes before writing them out.
+     */
+    private static final long SAVE_DELAY_SECONDS = 5;
+
+    /**
+     * How long the snapshot of a credential that is not loaded is kept.
+     */
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The key of the MACs that the snapshots are keyed by.
+     */
+    private static final HMACConfidentialKey KEY = new HMACConfidentialKey(DerivedFieldSnapshots.class, "key");
+
+    private static DerivedFieldSnapshots instance;
+
+    /**
+     * The salt of the password digests that the snapshots used to be keyed by.
+     *
+     * @deprecated only read to discard the snapshots written with it.
+     */
+    @Deprecated
+    private String salt;
+
+    private final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+
+    private transient boolean saveScheduled;
+
+    private DerivedFieldSnapshots() {
+    }
+
+    /**
+     * Returns the snapshots, loading them if necessary.
+     *
+     * @return the snapshots or {@code null} if Jenkins is not running.
+     */
+    private static synchronized DerivedFieldSnapshots get() {
+        if (instance == null) {
+            XmlFile file = getConfigFile();
+            if (file == null) {
+                return null;
+            }
+            DerivedFieldSnapshots loaded = null;
+            if (file.exists()) {
+                try {
+                    loaded = (DerivedFieldSnapshots) file.read();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not read " + file, e);
+                } catch (ClassCastException e) {
+                    LOGGER.log(Level.WARNING, "Unexpected content in " + file, e);
+                }
+            }
+            if (loaded == null) {
+                loaded = new DerivedFieldSnapshots();
+            } else if (loaded.salt != null) {
+                // keyed by salted digests that could be used to guess the passwords, do not keep them around
+                LOGGER.log(Level.INFO, "Discarding the snapshots in {0} written by an older version", file);
+                loaded.salt = null;
+                loaded.snapshots.clear();
+                loaded.scheduleSave();
+            }
+            instance = loaded;
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), DerivedFieldSnapshots.class.getName()
+                + ".xml"));
+    }
+
+    /**
+     * Looks up the snapshot of a login.
+     *
+     * @param email    the email address.
+     * @param password the password.
+     * @return the snapshot or {@code null} if there is none for this email address and password.
+     */
+    public static Snapshot lookup(String email, Secret password) {
+        DerivedFieldSnapshots snapshots = get();
+        if (snapshots == null) {
+            return null;
+        }
+        synchronized (snapshots) {
+            return snapshots.snapshots.get(digest(email, password));
+        }
+    }
+
+    /**
+     * Records the snapshot of a login. The snapshots are written out shortly afterwards.
+     *
+     * @param email       the email address.
+     * @param password    the password.
+     * @param uid         the UID.
+     * @param displayName the display name.
+     * @param username    the username.
+     * @param timestamp   when the values were fetched.
+     * @param ttlMillis   how long the values were expected to stay fresh.
+     */
+    public static void record(String email, Secret password, String uid, String displayName, String username,
+                              long timestamp, long ttlMillis) {
+        final DerivedFieldSnapshots snapshots = get();
+        if (snapshots == null) {
+            return;
+        }
+        synchronized (snapshots) {
+            snapshots.snapshots.put(digest(email, password),
+                    new Snapshot(uid, displayName, username, timestamp, ttlMillis));
+            snapshots.scheduleSave();
+        }
+    }
+
+    /**
+     * Writes out any pending snapshots when Jenkins shuts down.
+     */
+    @Terminator
+    public static void flush() {
+        DerivedFieldSnapshots snapshots;
+        synchronized (DerivedFieldSnapshots.class) {
+            snapshots = instance;
+        }
+        if (snapshots != null) {
+            snapshots.save();
+        }
+    }
+
+    private static String digest(String email, Secret password) {
+        return KEY.mac(CredentialFingerprint.normalize(email) + '\0' + Secret.toString(password));
+    }
+
+    private synchronized void scheduleSave() {
+        if (saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                save();
+            }
+        }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private synchronized void save() {
+        saveScheduled = false;
+        XmlFile file = getConfigFile();
+        if (file == null) {
+            return;
+        }
+        prune();
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save " + file, e);
+        }
+    }
+
+    /**
+     * Drops the snapshots that no live credential uses and that have not been refreshed for a while.
+     */
+    private void prune() {
+        Set<String> live = new HashSet<String>();
+        for (CloudBeesUserImpl user : CloudBeesUserImpl.instances()) {
+            live.add(digest(user.getName(), user.getPassword()));
+        }
+        long cutOff = System.currentTimeMillis() - RETENTION_MILLIS;
+        for (Iterator<Map.Entry<String, Snapshot>> i = snapshots.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, Snapshot> entry = i.next();
+            if (!live.contains(entry.getKey()) && entry.getValue().timestamp < cutOff) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * The derived fields of one login.
+     */
+    public static final class Snapshot {
+        private final String uid;
+        private final String displayName;
+        private final String username;
+        private final long timestamp;
+        private final long ttlMillis;
+
+        private Snapshot(String uid, String displayName, String username, long timestamp, long ttlMillis) {
+            this.uid = uid;
+            this.displayName = displayName;
+            this.username = username;
+            this.timestamp = timestamp;
+            this.ttlMillis = ttlMillis;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Returns when the values were fetched from Grand Central.
+         *
+         * @return the timestamp in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the time to live that {@link AdaptiveTtl} had arrived at, so that a restart does not reset it.
+         *
+         * @return the time to live in milliseconds, {@code 0} if unknown.
+         */
+        public long getTtlMillis() {
+            return ttlMillis;
+        }
+    }
+}
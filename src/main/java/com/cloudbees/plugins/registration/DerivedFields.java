@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import hudson.util.Secret;
+
+import java.util.List;
+
+/**
+ * The values that a {@link CloudBeesUserImpl} derives from Grand Central, as fetched by one refresh.
+ */
+final class DerivedFields {
+    private final String uid;
+    private final String apiKey;
+    private final Secret apiSecret;
+    private final String displayName;
+    private final String username;
+    private final List<CloudBeesAccount> accounts;
+    private final long timestamp;
+
+    DerivedFields(String uid, String apiKey, Secret apiSecret, String displayName, String username,
+                  List<CloudBeesAccount> accounts, long timestamp) {
+        this.uid = uid;
+        this.apiKey = apiKey;
+        this.apiSecret = apiSecret;
+        this.displayName = displayName;
+        this.username = username;
+        this.accounts = accounts;
+        this.timestamp = timestamp;
+    }
+
+    String getUid() {
+        return uid;
+    }
+
+    String getApiKey() {
+        return apiKey;
+    }
+
+    Secret getApiSecret() {
+        return apiSecret;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the accounts.
+     *
+     * @return the accounts or {@code null} if they could not be retrieved.
+     */
+    List<CloudBeesAccount> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Returns when the values were fetched.
+     *
+     * @return the timestamp in milliseconds since the epoch.
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+}
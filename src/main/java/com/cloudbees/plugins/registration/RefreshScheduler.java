@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides when each {@link CloudBeesUserImpl} refreshes its derived fields. Refreshes are due somewhat ahead of
+ * expiry, with jitter so that credentials loaded at the same time do not all expire at the same time, and no more
+ * than a fixed number of scheduled refreshes are in flight at once.
+ *
+ * <p>
+ * The due refreshes are held in the delay queue of a single dispatcher thread, which only hands them over to the
+ * {@link Bulkhead#CREDENTIALS} bulkhead.
+ *
+ * <p>
+ * The in-flight limit can be tuned with the system property
+ * {@code com.cloudbees.plugins.registration.RefreshScheduler.maxInFlight} (default 4).
+ */
+public final class RefreshScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(RefreshScheduler.class.getName());
+
+    /**
+     * The maximum number of scheduled refreshes in flight.
+     */
+    public static final int MAX_IN_FLIGHT =
+            Math.max(1, Integer.getInteger(RefreshScheduler.class.getName() + ".maxInFlight", 4));
+
+    /**
+     * The earliest fraction of the time to live at which a refresh is due.
+     */
+    private static final double REFRESH_AHEAD_MIN = 0.75;
+
+    /**
+     * The latest fraction of the time to live at which a refresh is due.
+     */
+    private static final double REFRESH_AHEAD_MAX = 0.9;
+
+    /**
+     * The window over which the first refresh of credentials restored from a snapshot is spread.
+     */
+    private static final long INITIAL_SPREAD_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final Random random = new Random();
+
+    private static final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(
+            new ExceptionCatchingThreadFactory(new DaemonThreadFactory(new ThreadFactory() {
+                private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = delegate.newThread(r);
+                    thread.setName("RefreshScheduler-" + thread.getName());
+                    return thread;
+                }
+            })));
+
+    private RefreshScheduler() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Schedules the first refresh of a credential.
+     *
+     * @param user     the credential.
+     * @param restored whether it was restored from a {@link DerivedFieldSnapshots snapshot}, in which case it can
+     *                 serve its last known values for a little while and its refresh is spread out further.
+     */
+    static void scheduleInitial(CloudBeesUserImpl user, boolean restored) {
+        long now = System.currentTimeMillis();
+        if (restored) {
+            // still without its keys, so do not wait for the snapshot to age, just avoid a burst after a restart
+            schedule(user, now + jitter(INITIAL_SPREAD_MILLIS));
+        } else {
+            schedule(user, now + jitter(TimeUnit.SECONDS.toMillis(5)));
+        }
+    }
+
+    /**
+     * Schedules the next refresh of a credential, replacing any refresh already scheduled.
+     *
+     * @param user the credential.
+     * @param due  when the refresh is due.
+     */
+    static void schedule(CloudBeesUserImpl user, long due) {
+        ScheduledFuture<?> previous = user.getScheduledRefresh();
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        long delay = Math.max(0, due - System.currentTimeMillis());
+        user.setScheduledRefresh(dispatcher.schedule(new Dispatch(user), delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns when a refresh is due for derived fields fetched at the given time.
+     *
+     * @param lastRefresh when the derived fields were fetched.
+     * @param ttlMillis   how long the derived fields stay fresh.
+     * @return when the refresh is due.
+     */
+    static long refreshAhead(long lastRefresh, long ttlMillis) {
+        double fraction;
+        synchronized (random) {
+            fraction = REFRESH_AHEAD_MIN + random.nextDouble() * (REFRESH_AHEAD_MAX - REFRESH_AHEAD_MIN);
+        }
+        return lastRefresh + (long) (ttlMillis * fraction);
+    }
+
+    /**
+     * Returns a random delay.
+     *
+     * @param maxMillis the maximum delay.
+     * @return a random delay between {@code 0} and {@code maxMillis}.
+     */
+    static long jitter(long maxMillis) {
+        synchronized (random) {
+            return (long) (random.nextDouble() * maxMillis);
+        }
+    }
+
+    /**
+     * Hands a due refresh over to the bulkhead.
+     */
+    private static final class Dispatch implements Runnable {
+        private final WeakReference<CloudBeesUserImpl> user;
+
+        private Dispatch(CloudBeesUserImpl user) {
+            this.user = new WeakReference<CloudBeesUserImpl>(user);
+        }
+
+        public void run() {
+            CloudBeesUserImpl user = this.user.get();
+            if (user == null) {
+                // the credential has been removed
+                return;
+            }
+            if (CloudBeesUserImpl.getRefreshesInFlight() >= MAX_IN_FLIGHT || user.refreshInBackground() == null) {
+                LOGGER.log(Level.FINE, "Too many refreshes in flight, postponing {0}", user.getName());
+                schedule(user, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(1)
+                        + jitter(TimeUnit.SECONDS.toMillis(4)));
+            }
+        }
+    }
+}
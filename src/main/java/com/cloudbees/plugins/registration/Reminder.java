@@ -32,6 +32,7 @@ import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
 import hudson.model.PageDecorator;
+import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.HttpResponse;
@@ -55,6 +56,16 @@ public class Reminder extends PageDecorator {
 
     private boolean nagDisabled;
 
+    /**
+     * The minimum time to live of the fields derived by {@link CloudBeesUserImpl}, {@code 0} for the default.
+     */
+    private int minRefreshSeconds;
+
+    /**
+     * The maximum time to live of the fields derived by {@link CloudBeesUserImpl}, {@code 0} for the default.
+     */
+    private int maxRefreshSeconds;
+
     private transient volatile long lastNagTime;
 
     public Reminder() {
@@ -156,6 +167,48 @@ public class Reminder extends PageDecorator {
         }
     }
 
+    public int getMinRefreshSeconds() {
+        return minRefreshSeconds > 0 ? minRefreshSeconds : AdaptiveTtl.DEFAULT_MIN_SECONDS;
+    }
+
+    public void setMinRefreshSeconds(int minRefreshSeconds) {
+        if (this.minRefreshSeconds != minRefreshSeconds) {
+            this.minRefreshSeconds = minRefreshSeconds;
+            save();
+        }
+    }
+
+    public int getMaxRefreshSeconds() {
+        return maxRefreshSeconds > 0 ? maxRefreshSeconds : AdaptiveTtl.DEFAULT_MAX_SECONDS;
+    }
+
+    public void setMaxRefreshSeconds(int maxRefreshSeconds) {
+        if (this.maxRefreshSeconds != maxRefreshSeconds) {
+            this.maxRefreshSeconds = maxRefreshSeconds;
+            save();
+        }
+    }
+
+    public FormValidation doCheckMinRefreshSeconds(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckMaxRefreshSeconds(@QueryParameter String value,
+                                                   @QueryParameter String minRefreshSeconds) {
+        FormValidation validation = FormValidation.validatePositiveInteger(value);
+        if (validation.kind != FormValidation.Kind.OK) {
+            return validation;
+        }
+        try {
+            if (Integer.parseInt(value) < Integer.parseInt(minRefreshSeconds)) {
+                return FormValidation.warning("Less than the minimum, the minimum will be used");
+            }
+        } catch (NumberFormatException e) {
+            // reported against the minimum
+        }
+        return FormValidation.ok();
+    }
+
     @Override
     public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
         req.bindJSON(this, json);
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.plugins.asynchttpclient.AHCUtils;
+import jenkins.util.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the single, plugin-wide {@link AsyncHttpClient} used for all the traffic to Grand Central and the
+ * DEV@cloud provider. The client keeps connections alive in its pool so that repeated requests do not pay for a
+ * new TLS handshake each time.
+ *
+ * <p>
+ * The client is only rebuilt when the Jenkins proxy configuration changes. Callers must never
+ * {@link AsyncHttpClient#close()} the client they obtain from {@link #get()}.
+ *
+ * <p>
+ * The pool and timeout limits can be tuned with the following system properties:
+ * <ul>
+ * <li>{@code com.cloudbees.plugins.registration.SharedAsyncHttpClient.maxConnectionsPerHost} (default 10)</li>
+ * <li>{@code com.cloudbees.plugins.registration.SharedAsyncHttpClient.connectTimeoutMs} (default 10000)</li>
+ * <li>{@code com.cloudbees.plugins.registration.SharedAsyncHttpClient.requestTimeoutMs} (default 25000)</li>
+ * <li>{@code com.cloudbees.plugins.registration.SharedAsyncHttpClient.idleTimeoutMs} (default 60000)</li>
+ * </ul>
+ */
+public final class SharedAsyncHttpClient {
+
+    private static final Logger LOGGER = Logger.getLogger(SharedAsyncHttpClient.class.getName());
+
+    private static final String PREFIX = SharedAsyncHttpClient.class.getName();
+
+    /**
+     * The maximum number of idle connections kept in the pool for any one host. The total number of open
+     * connections is deliberately left unbounded: the client fails a request outright rather than queueing it
+     * once that limit is reached, so concurrency is bounded by the {@link Bulkhead}s that issue the requests.
+     */
+    public static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger(PREFIX + ".maxConnectionsPerHost", 10);
+
+    /**
+     * The connection timeout.
+     */
+    public static final int CONNECT_TIMEOUT_MS = Integer.getInteger(PREFIX + ".connectTimeoutMs", 10000);
+
+    /**
+     * The request timeout.
+     */
+    public static final int REQUEST_TIMEOUT_MS = Integer.getInteger(PREFIX + ".requestTimeoutMs", 25000);
+
+    /**
+     * How long an idle connection is kept in the pool.
+     */
+    public static final int IDLE_TIMEOUT_MS = Integer.getInteger(PREFIX + ".idleTimeoutMs", 60000);
+
+    /**
+     * How long a replaced client is left open so that requests already in flight can complete.
+     */
+    private static final long RETIRE_DELAY_MS = REQUEST_TIMEOUT_MS + TimeUnit.SECONDS.toMillis(5);
+
+    private static AsyncHttpClient client;
+
+    private static boolean closed;
+
+    private SharedAsyncHttpClient() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the shared client, creating it if necessary.
+     *
+     * @return the shared client, never {@code null}.
+     */
+    public static synchronized AsyncHttpClient get() {
+        if (client == null) {
+            if (closed) {
+                throw new IllegalStateException("Jenkins is shutting down");
+            }
+            AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                    .setAllowPoolingConnection(true)
+                    .setMaximumConnectionsPerHost(MAX_CONNECTIONS_PER_HOST)
+                    .setConnectionTimeoutInMs(CONNECT_TIMEOUT_MS)
+                    .setRequestTimeoutInMs(REQUEST_TIMEOUT_MS)
+                    .setIdleConnectionInPoolTimeoutInMs(IDLE_TIMEOUT_MS)
+                    .setProxyServer(AHCUtils.getProxyServer())
+                    .build();
+            client = new AsyncHttpClient(config);
+            LOGGER.log(Level.FINE, "Created shared HTTP client");
+        }
+        return client;
+    }
+
+    /**
+     * Discards the current client so that the next call to {@link #get()} picks up the current proxy
+     * configuration. The discarded client is closed once any requests in flight have had a chance to complete.
+     */
+    public static void invalidate() {
+        final AsyncHttpClient old;
+        synchronized (SharedAsyncHttpClient.class) {
+            old = client;
+            client = null;
+        }
+        if (old != null) {
+            LOGGER.log(Level.FINE, "Proxy configuration changed, retiring shared HTTP client");
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    old.close();
+                }
+            }, RETIRE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Closes the shared client when Jenkins shuts down.
+     */
+    @Terminator
+    public static void shutdown() {
+        AsyncHttpClient old;
+        synchronized (SharedAsyncHttpClient.class) {
+            old = client;
+            client = null;
+            closed = true;
+        }
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Rebuilds the client whenever the proxy configuration is saved.
+     */
+    @Extension
+    public static class ProxyConfigurationListener extends SaveableListener {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the copies of the same CloudBees login (the same email and password kept in several credentials stores or
+ * domains) share their refreshes. A refresh that is in flight, or that completed successfully a moment ago, is
+ * handed to every copy instead of asking Grand Central again.
+ *
+ * <p>
+ * Logins are keyed by {@link CredentialFingerprint}, so the password itself is never used as a key.
+ */
+final class SharedRefreshes {
+
+    /**
+     * How long a successful refresh is shared with the copies that ask for it afterwards.
+     */
+    private static final long RECENT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    private SharedRefreshes() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Refreshes a login, unless a refresh of the same login is in flight or completed a moment ago. When this
+     * caller is the one that has to do the refresh, the fetch runs on the calling thread.
+     *
+     * @param key   the fingerprint of the login.
+     * @param fetch fetches the derived fields.
+     * @return the shared result.
+     */
+    static ListenableFuture<DerivedFields> refresh(String key, Callable<DerivedFields> fetch) {
+        while (true) {
+            Flight current = flights.get(key);
+            if (current != null && current.isShareable()) {
+                return current.future;
+            }
+            Flight flight = new Flight();
+            if (current == null ? flights.putIfAbsent(key, flight) != null : !flights.replace(key, current, flight)) {
+                // somebody else started a refresh in the meantime
+                continue;
+            }
+            prune();
+            try {
+                DerivedFields fields = fetch.call();
+                flight.completed = System.currentTimeMillis();
+                flight.succeeded = true;
+                flight.future.set(fields);
+            } catch (Exception e) {
+                flight.completed = System.currentTimeMillis();
+                flight.future.setException(e);
+            } catch (Error e) {
+                flight.completed = System.currentTimeMillis();
+                flight.future.setException(e);
+                throw e;
+            }
+            return flight.future;
+        }
+    }
+
+    /**
+     * Drops the results that are too old to be shared.
+     */
+    private static void prune() {
+        for (Iterator<Flight> i = flights.values().iterator(); i.hasNext(); ) {
+            Flight flight = i.next();
+            if (flight.future.isDone() && !flight.isShareable()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * One refresh of a login.
+     */
+    private static final class Flight {
+        private final SettableFuture<DerivedFields> future = SettableFuture.create();
+        private volatile long completed;
+        private volatile boolean succeeded;
+
+        private boolean isShareable() {
+            if (!future.isDone()) {
+                return true;
+            }
+            // failures are not shared with later callers
+            return succeeded && System.currentTimeMillis() < completed + RECENT_MILLIS;
+        }
+    }
+}
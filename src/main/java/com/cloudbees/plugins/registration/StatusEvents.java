@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The recent changes of the {@link CloudBeesWidget} statuses, kept in a ring buffer so that the browsers
+ * subscribed to {@link CloudBeesWidget#doEvents} can be told about them as they happen and can catch up after a
+ * reconnection.
+ *
+ * <p>
+ * The sequence numbers start again with every JVM, so the IDs handed to the browsers carry the epoch of this JVM as
+ * well: a browser that reconnects after a restart with the ID of an event of the previous JVM is told that
+ * everything may have changed rather than waiting for the sequence to catch up with its ID.
+ *
+ * <p>
+ * Each subscriber holds a request thread while it waits, so the number of subscribers and the time each one is
+ * held are bounded, the browsers that cannot subscribe fall back to polling. The bounds can be tuned with the
+ * system properties {@code com.cloudbees.plugins.registration.StatusEvents.maxSubscribers} (default 32) and
+ * {@code com.cloudbees.plugins.registration.StatusEvents.holdSeconds} (default 25).
+ */
+public final class StatusEvents {
+
+    private static final String PREFIX = StatusEvents.class.getName();
+
+    /**
+     * The maximum number of subscribers at any one time.
+     */
+    public static final int MAX_SUBSCRIBERS = Math.max(0, Integer.getInteger(PREFIX + ".maxSubscribers", 32));
+
+    /**
+     * How long a subscriber is held before it has to reconnect.
+     */
+    public static final int HOLD_SECONDS = Math.max(1, Integer.getInteger(PREFIX + ".holdSeconds", 25));
+
+    /**
+     * The number of events kept for subscribers that reconnect.
+     */
+    private static final int CAPACITY = 256;
+
+    /**
+     * Tells the IDs of the events of this JVM from those of the previous ones.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private static final Event[] events = new Event[CAPACITY];
+
+    private static final Semaphore subscribers = new Semaphore(MAX_SUBSCRIBERS);
+
+    /**
+     * The sequence number of the last event.
+     */
+    private static long sequence;
+
+    private StatusEvents() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Records that the status of an account has changed and wakes up the subscribers.
+     *
+     * @param accountName the account or {@code null} if the set of accounts may have changed.
+     */
+    static void publish(String accountName) {
+        synchronized (events) {
+            sequence++;
+            events[(int) (sequence % CAPACITY)] = new Event(sequence, accountName, CloudBeesWidget.getVersion());
+            events.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last event.
+     *
+     * @return the sequence number.
+     */
+    static long getSequence() {
+        synchronized (events) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Returns the ID under which an event is sent to the browsers.
+     *
+     * @param sequence the sequence number of the event.
+     * @return the ID.
+     */
+    static String toId(long sequence) {
+        return EPOCH + '-' + sequence;
+    }
+
+    /**
+     * Returns the sequence number of the event a browser saw last.
+     *
+     * @param id the ID of the event, as sent back by the browser.
+     * @return the sequence number, or {@code -1} if the ID is not that of an event of this JVM.
+     */
+    static long fromId(String id) {
+        String prefix = EPOCH + '-';
+        if (id == null || !id.trim().startsWith(prefix)) {
+            // from a previous JVM, or from before the IDs carried an epoch
+            return -1;
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(id.trim().substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return sequence > getSequence() ? -1 : sequence;
+    }
+
+    /**
+     * Waits for the events that follow a given one.
+     *
+     * @param after         the sequence number of the last event seen.
+     * @param timeoutMillis how long to wait for an event.
+     * @return the events, empty if there were none before the timeout. If some of the events are no longer
+     *         available, a single event that applies to all accounts is returned in their place.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    static List<Event> await(long after, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (events) {
+            long remaining = timeoutMillis;
+            while (sequence <= after && remaining > 0) {
+                events.wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            if (sequence <= after) {
+                return Collections.emptyList();
+            }
+            if (after < 0 || sequence - after > CAPACITY) {
+                // missed too much, everything may have changed
+                return Collections.singletonList(new Event(sequence, null, CloudBeesWidget.getVersion()));
+            }
+            List<Event> result = new ArrayList<Event>((int) (sequence - after));
+            for (long s = after + 1; s <= sequence; s++) {
+                result.add(events[(int) (s % CAPACITY)]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Takes a subscriber slot.
+     *
+     * @return {@code true} if a slot was free.
+     */
+    static boolean subscribe() {
+        return subscribers.tryAcquire();
+    }
+
+    /**
+     * Gives back a subscriber slot.
+     */
+    static void unsubscribe() {
+        subscribers.release();
+    }
+
+    /**
+     * Returns the number of subscribers.
+     *
+     * @return the number of subscribers.
+     */
+    public static int getSubscriberCount() {
+        return MAX_SUBSCRIBERS - subscribers.availablePermits();
+    }
+
+    /**
+     * Returns how long a subscriber is held.
+     *
+     * @return the hold time in milliseconds.
+     */
+    static long getHoldMillis() {
+        return TimeUnit.SECONDS.toMillis(HOLD_SECONDS);
+    }
+
+    /**
+     * A change of status.
+     */
+    static final class Event {
+        private final long sequence;
+        private final String accountName;
+        private final long version;
+
+        private Event(long sequence, String accountName, long version) {
+            this.sequence = sequence;
+            this.accountName = accountName;
+            this.version = version;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns the account whose status changed.
+         *
+         * @return the account or {@code null} if the change may apply to all accounts.
+         */
+        String getAccountName() {
+            return accountName;
+        }
+
+        long getVersion() {
+            return version;
+        }
+    }
+}
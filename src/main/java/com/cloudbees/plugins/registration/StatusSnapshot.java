@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import hudson.Util;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The machine readable view of the {@link CloudBeesWidget}, served by its remote API. It is built from the cached
+ * statuses only, so reading it never waits for Grand Central.
+ */
+@ExportedBean
+public final class StatusSnapshot {
+
+    private final long version;
+
+    private final List<AccountStatus> accounts;
+
+    StatusSnapshot(long version, List<AccountStatus> accounts) {
+        this.version = version;
+        this.accounts = Collections.unmodifiableList(new ArrayList<AccountStatus>(accounts));
+    }
+
+    /**
+     * Returns the version of the cached statuses this snapshot was taken from.
+     *
+     * @return the version.
+     */
+    @Exported
+    public long getVersion() {
+        return version;
+    }
+
+    @Exported
+    public List<AccountStatus> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Returns a digest of everything this snapshot exports, so that an entity tag built from it changes whenever
+     * any exported field does, not only when the version does.
+     *
+     * @return the digest.
+     */
+    String digest() {
+        long hash = version;
+        for (AccountStatus account : accounts) {
+            hash = 31 * hash + account.name.hashCode();
+            hash = 31 * hash + account.timestamp;
+            hash = 31 * hash + (account.updating ? 1 : 0);
+            for (DataPointStatus dataPoint : account.dataPoints) {
+                hash = 31 * hash + Util.fixNull(dataPoint.iconFileName).hashCode();
+                hash = 31 * hash + Util.fixNull(dataPoint.message).hashCode();
+                hash = 31 * hash + Util.fixNull(dataPoint.messageKey).hashCode();
+                hash = 31 * hash + (dataPoint.value == null ? 0 : dataPoint.value.hashCode());
+                hash = 31 * hash + Util.fixNull(dataPoint.formattedValue).hashCode();
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * The cached status of one account.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class AccountStatus {
+        private final String name;
+        private final long timestamp;
+        private final boolean updating;
+        private final List<DataPointStatus> dataPoints;
+
+        AccountStatus(String name, long timestamp, boolean updating, List<? extends DataPoint> dataPoints) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.updating = updating;
+            List<DataPointStatus> list = new ArrayList<DataPointStatus>();
+            if (dataPoints != null) {
+                for (DataPoint dataPoint : dataPoints) {
+                    list.add(new DataPointStatus(dataPoint));
+                }
+            }
+            this.dataPoints = Collections.unmodifiableList(list);
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns when the status was fetched.
+         *
+         * @return the timestamp in milliseconds since the epoch, {@code 0} if there is no status yet.
+         */
+        @Exported
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns whether an update of the status is pending.
+         *
+         * @return {@code true} if the status is being updated.
+         */
+        @Exported
+        public boolean isUpdating() {
+            return updating;
+        }
+
+        @Exported
+        public List<DataPointStatus> getDataPoints() {
+            return dataPoints;
+        }
+    }
+
+    /**
+     * One data point of a cached status.
+     */
+    @ExportedBean(defaultVisibility = 3)
+    public static final class DataPointStatus {
+        private final String iconFileName;
+        private final String message;
+        private final String messageKey;
+        private final Object value;
+        private final String formattedValue;
+
+        private DataPointStatus(DataPoint dataPoint) {
+            this.iconFileName = dataPoint.getIconFileName();
+            this.message = dataPoint.getMessage();
+            this.formattedValue = dataPoint.getFormattedValue();
+            if (dataPoint instanceof CloudBeesWidget.StatusLine) {
+                CloudBeesWidget.StatusLine line = (CloudBeesWidget.StatusLine) dataPoint;
+                this.messageKey = line.getMessageKey();
+                this.value = line.getValue();
+            } else {
+                this.messageKey = null;
+                this.value = null;
+            }
+        }
+
+        @Exported
+        public String getIconFileName() {
+            return iconFileName;
+        }
+
+        @Exported
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the message key of the status lines of the plugin.
+         *
+         * @return the message key or {@code null} for the data points of other plugins.
+         */
+        @Exported
+        public String getMessageKey() {
+            return messageKey;
+        }
+
+        /**
+         * Returns the raw value of the status lines of the plugin.
+         *
+         * @return the value or {@code null} for the data points of other plugins.
+         */
+        @Exported
+        public Object getValue() {
+            return value;
+        }
+
+        @Exported
+        public String getFormattedValue() {
+            return formattedValue;
+        }
+    }
+}
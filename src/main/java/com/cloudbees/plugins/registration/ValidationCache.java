@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import hudson.util.FormValidation;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded cache of form validation outcomes. Successes are kept for a while, failures only briefly so that
+ * a corrected value is checked again soon while a burst of checks of the same wrong value is answered locally.
+ *
+ * <p>
+ * Entries are keyed by a {@link CredentialFingerprint}, never by the secret being validated.
+ *
+ * <p>
+ * The cache of {@link #PASSWORDS} can be tuned with the system properties
+ * {@code com.cloudbees.plugins.registration.ValidationCache.maxEntries} (default 256),
+ * {@code com.cloudbees.plugins.registration.ValidationCache.successSeconds} (default 360) and
+ * {@code com.cloudbees.plugins.registration.ValidationCache.failureSeconds} (default 30).
+ */
+public final class ValidationCache {
+
+    private static final String PREFIX = ValidationCache.class.getName();
+
+    /**
+     * The outcomes of {@link CloudBeesUserImpl.DescriptorImpl#doCheckPassword}.
+     */
+    public static final ValidationCache PASSWORDS = new ValidationCache("Passwords",
+            Math.max(1, Integer.getInteger(PREFIX + ".maxEntries", 256)),
+            Math.max(0, Integer.getInteger(PREFIX + ".successSeconds", 360)),
+            Math.max(0, Integer.getInteger(PREFIX + ".failureSeconds", 30)));
+
+    private final String name;
+
+    private final int maxEntries;
+
+    private final long successMillis;
+
+    private final long failureMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final ConcurrentMap<String, Entry> entries;
+
+    private ValidationCache(String name, int maxEntries, int successSeconds, int failureSeconds) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.successMillis = TimeUnit.SECONDS.toMillis(successSeconds);
+        this.failureMillis = TimeUnit.SECONDS.toMillis(failureSeconds);
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Math.max(1, Math.max(successSeconds, failureSeconds)), TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<String, Entry>() {
+                    public void onRemoval(RemovalNotification<String, Entry> notification) {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                })
+                .<String, Entry>build()
+                .asMap();
+    }
+
+    /**
+     * Looks up the outcome of a validation.
+     *
+     * @param key the fingerprint of the validated value.
+     * @return the outcome or {@code null} if not cached or expired.
+     */
+    public FormValidation get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (System.currentTimeMillis() < entry.expires) {
+                hits.incrementAndGet();
+                return entry.outcome;
+            }
+            entries.remove(key, entry);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the outcome of a validation.
+     *
+     * @param key     the fingerprint of the validated value.
+     * @param outcome the outcome.
+     */
+    public void put(String key, FormValidation outcome) {
+        long ttl = outcome.kind == FormValidation.Kind.OK ? successMillis : failureMillis;
+        if (ttl > 0) {
+            entries.put(key, new Entry(outcome, System.currentTimeMillis() + ttl));
+        } else {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Forgets the outcome of a validation.
+     *
+     * @param key the fingerprint of the validated value.
+     */
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ValidationCache{" + name + ", size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + '}';
+    }
+
+    private static final class Entry {
+        private final FormValidation outcome;
+        private final long expires;
+
+        private Entry(FormValidation outcome, long expires) {
+            this.outcome = outcome;
+            this.expires = expires;
+        }
+    }
+}
@@ -26,7 +26,6 @@ package com.cloudbees.plugins.registration.grandcentral;
 
 import com.cloudbees.Domain;
 import com.cloudbees.plugins.registration.CloudBeesWidget;
-import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.RequestBuilder;
@@ -42,7 +41,11 @@ import java.util.Set;
 /**
  * An account health status query handler.
  */
-public class ApiAccountHealthStatusHandler extends AsyncCompletionHandler<List<CloudBeesWidget.StatusLine>> {
+public class ApiAccountHealthStatusHandler extends CircuitBreakingHandler<List<CloudBeesWidget.StatusLine>> {
+
+    public ApiAccountHealthStatusHandler() {
+        super(CircuitBreaker.ACCOUNT_HEALTH_STATUS);
+    }
 
     /**
      * Represents the type of authentication to query with.
@@ -103,7 +106,7 @@ public class ApiAccountHealthStatusHandler extends AsyncCompletionHandler<List<C
         params.put(authenticationType.getKey(), authentication);
         params.put("account", accountName);
 
-        return client.executeRequest(builder.setUrl(System.getProperty("dsp.url","https://dev-provider.cloudbees.com") + "/api/account/health_status")
+        return execute(client, builder.setUrl(System.getProperty("dsp.url","https://dev-provider.cloudbees.com") + "/api/account/health_status")
                 .addHeader("content-type", "application/json")
                 .setFollowRedirects(true)
                 .setBody(params.toString()).build(), new ApiAccountHealthStatusHandler());
@@ -113,7 +116,7 @@ public class ApiAccountHealthStatusHandler extends AsyncCompletionHandler<List<C
      * {@inheritDoc}
      */
     @Override
-    public List<CloudBeesWidget.StatusLine> onCompleted(Response response) throws Exception {
+    protected List<CloudBeesWidget.StatusLine> onResponse(Response response) throws Exception {
         if (response.getStatusCode() == 200) {
             JSONObject json = JSONObject.fromObject(response.getResponseBody());
             if (json.containsKey("remaining_minutes")) {
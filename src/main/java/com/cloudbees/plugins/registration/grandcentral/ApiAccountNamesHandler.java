@@ -27,7 +27,7 @@ package com.cloudbees.plugins.registration.grandcentral;
 import com.cloudbees.EndPoints;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.registration.CloudBeesAccountImpl;
-import com.ning.http.client.AsyncCompletionHandler;
+import com.google.common.collect.ImmutableList;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.RequestBuilder;
@@ -42,7 +42,23 @@ import java.util.List;
  * @author stephenc
  * @since 19/01/2012 15:58
  */
-public class ApiAccountNamesHandler extends AsyncCompletionHandler<List<CloudBeesAccount>> {
+public class ApiAccountNamesHandler extends CircuitBreakingHandler<List<CloudBeesAccount>> {
+
+    private static final ResponseMemo<List<CloudBeesAccount>> memo = new ResponseMemo<List<CloudBeesAccount>>();
+
+    /**
+     * The key of the request in {@link #memo}.
+     */
+    private final String key;
+
+    public ApiAccountNamesHandler() {
+        this(null);
+    }
+
+    private ApiAccountNamesHandler(String key) {
+        super(CircuitBreaker.ACCOUNT_NAMES);
+        this.key = key;
+    }
 
     public static ListenableFuture<List<CloudBeesAccount>> executeRequest(AsyncHttpClient client, String uid)
             throws IOException {
@@ -51,14 +67,19 @@ public class ApiAccountNamesHandler extends AsyncCompletionHandler<List<CloudBee
         JSONObject params = new JSONObject();
         params.put("uid", uid);
 
-        return client.executeRequest(builder.setUrl(EndPoints.grandCentral() + "/account/names")
+        return execute(client, builder.setUrl(EndPoints.grandCentral() + "/account/names")
                 .addHeader("content-type", "application/json")
-                .setBody(params.toString()).build(), new ApiAccountNamesHandler());
+                .setBody(params.toString()).build(), new ApiAccountNamesHandler(uid));
     }
 
     @Override
-    public List<CloudBeesAccount> onCompleted(Response response) throws Exception {
+    protected List<CloudBeesAccount> onResponse(Response response) throws Exception {
         if (response.getStatusCode() == 200) {
+            String digest = ResponseMemo.digest(response);
+            List<CloudBeesAccount> unchanged = memo.unchanged(key, digest);
+            if (unchanged != null) {
+                return unchanged;
+            }
             JSONObject json = JSONObject.fromObject(response.getResponseBody());
             if (json.containsKey("accounts")) {
                 List<CloudBeesAccount> accounts = new ArrayList<CloudBeesAccount>();
@@ -66,7 +87,7 @@ public class ApiAccountNamesHandler extends AsyncCompletionHandler<List<CloudBee
                     String name = obj.toString();
                     accounts.add(new CloudBeesAccountImpl(name, name));
                 }
-                return accounts;
+                return memo.remember(key, digest, ImmutableList.copyOf(accounts));
             }
         }
         throw new IOException("HTTP " + response.getStatusCode() + "/" + response.getStatusText());
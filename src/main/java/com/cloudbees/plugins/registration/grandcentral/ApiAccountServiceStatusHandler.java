@@ -25,7 +25,6 @@
 package com.cloudbees.plugins.registration.grandcentral;
 
 import com.cloudbees.EndPoints;
-import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.RequestBuilder;
@@ -38,7 +37,11 @@ import java.io.IOException;
  * @author stephenc
  * @since 19/01/2012 15:58
  */
-public class ApiAccountServiceStatusHandler extends AsyncCompletionHandler<String> {
+public class ApiAccountServiceStatusHandler extends CircuitBreakingHandler<String> {
+
+    public ApiAccountServiceStatusHandler() {
+        super(CircuitBreaker.ACCOUNT_SERVICE_STATUS);
+    }
 
     public static ListenableFuture<String> executeRequest(AsyncHttpClient client, String uid, String accountName)
             throws IOException {
@@ -48,13 +51,13 @@ public class ApiAccountServiceStatusHandler extends AsyncCompletionHandler<Strin
         params.put("uid", uid);
         params.put("account", accountName);
 
-        return client.executeRequest(builder.setUrl(EndPoints.grandCentral() + "/account/service_status")
+        return execute(client, builder.setUrl(EndPoints.grandCentral() + "/account/service_status")
                 .addHeader("content-type", "application/json")
                 .setBody(params.toString()).build(), new ApiAccountServiceStatusHandler());
     }
 
     @Override
-    public String onCompleted(Response response) throws Exception {
+    protected String onResponse(Response response) throws Exception {
         if (response.getStatusCode() == 200) {
             JSONObject json = JSONObject.fromObject(response.getResponseBody());
             return json.optString("username");
@@ -25,7 +25,6 @@
 package com.cloudbees.plugins.registration.grandcentral;
 
 import com.cloudbees.EndPoints;
-import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.Request;
@@ -41,7 +40,11 @@ import java.io.IOException;
  * @author stephenc
  * @since 19/01/2012 16:09
  */
-public class ApiUserKeysUsingAuthHandler extends AsyncCompletionHandler<ApiUserKeysUsingAuthResponse> {
+public class ApiUserKeysUsingAuthHandler extends CircuitBreakingHandler<ApiUserKeysUsingAuthResponse> {
+
+    public ApiUserKeysUsingAuthHandler() {
+        super(CircuitBreaker.USER_KEYS_USING_AUTH);
+    }
 
     public static ListenableFuture<ApiUserKeysUsingAuthResponse> executeRequest(AsyncHttpClient client, String email,
                                                                                 String password)
@@ -55,11 +58,11 @@ public class ApiUserKeysUsingAuthHandler extends AsyncCompletionHandler<ApiUserK
         Request request = builder.setUrl(EndPoints.grandCentral() + "/user/keys_using_auth")
                 .addHeader("content-type", "application/json")
                 .setBody(params.toString()).build();
-        return client.executeRequest(request, new ApiUserKeysUsingAuthHandler());
+        return execute(client, request, new ApiUserKeysUsingAuthHandler());
     }
 
     @Override
-    public ApiUserKeysUsingAuthResponse onCompleted(Response response) throws Exception {
+    protected ApiUserKeysUsingAuthResponse onResponse(Response response) throws Exception {
         if (response.getStatusCode() == 200) {
             JSONObject json = JSONObject.fromObject(response.getResponseBody());
             if (json.containsKey("uid") && json.containsKey("api_key") && json.containsKey("secret_key")) {
@@ -27,7 +27,7 @@ package com.cloudbees.plugins.registration.grandcentral;
 import com.cloudbees.EndPoints;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.registration.CloudBeesAccountImpl;
-import com.ning.http.client.AsyncCompletionHandler;
+import com.google.common.collect.ImmutableList;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.RequestBuilder;
@@ -45,7 +45,23 @@ import java.util.List;
  * @author stephenc
  * @since 19/01/2012 16:09
  */
-public class ApiUserProfileHandler extends AsyncCompletionHandler<ApiUserProfileResponse> {
+public class ApiUserProfileHandler extends CircuitBreakingHandler<ApiUserProfileResponse> {
+
+    private static final ResponseMemo<ApiUserProfileResponse> memo = new ResponseMemo<ApiUserProfileResponse>();
+
+    /**
+     * The key of the request in {@link #memo}.
+     */
+    private final String key;
+
+    public ApiUserProfileHandler() {
+        this(null);
+    }
+
+    private ApiUserProfileHandler(String key) {
+        super(CircuitBreaker.USER_PROFILE);
+        this.key = key;
+    }
 
     public static ListenableFuture<ApiUserProfileResponse> executeRequest(AsyncHttpClient client, String uid, String email)
             throws IOException {
@@ -55,14 +71,19 @@ public class ApiUserProfileHandler extends AsyncCompletionHandler<ApiUserProfile
         params.put("uid", uid);
         params.put("email", email);
 
-        return client.executeRequest(builder.setUrl(EndPoints.grandCentral() + "/user/profile")
+        return execute(client, builder.setUrl(EndPoints.grandCentral() + "/user/profile")
                 .addHeader("content-type", "application/json")
-                .setBody(params.toString()).build(), new ApiUserProfileHandler());
+                .setBody(params.toString()).build(), new ApiUserProfileHandler(uid + '\n' + email));
     }
 
     @Override
-    public ApiUserProfileResponse onCompleted(Response response) throws Exception {
+    protected ApiUserProfileResponse onResponse(Response response) throws Exception {
         if (response.getStatusCode() == 200) {
+            String digest = ResponseMemo.digest(response);
+            ApiUserProfileResponse unchanged = memo.unchanged(key, digest);
+            if (unchanged != null) {
+                return unchanged;
+            }
             JSONObject json = JSONObject.fromObject(response.getResponseBody());
             try {
                 String firstName = json.getString("first_name");
@@ -78,7 +99,8 @@ public class ApiUserProfileHandler extends AsyncCompletionHandler<ApiUserProfile
                     accountNames.add(new CloudBeesAccountImpl(accountName,
                             getDisplayNameOf(company, accountName)));
                 }
-                return new ApiUserProfileResponse(firstName, lastName, fullName, username, accountNames);
+                return memo.remember(key, digest, new ApiUserProfileResponse(firstName, lastName, fullName,
+                        username, ImmutableList.copyOf(accountNames)));
             } catch (JSONException e) {
                 IOException ioe = new IOException("Unexpected response");
                 ioe.initCause(e);
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration.grandcentral;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A circuit breaker for one remote endpoint. After a number of consecutive failures the circuit opens and requests
+ * fail fast with a {@link CircuitBreakerOpenException} until a jittered, exponentially growing delay has passed.
+ * Then a single probe request is let through (half-open): if it succeeds the circuit closes, otherwise it opens
+ * again.
+ *
+ * <p>
+ * Only transport failures and HTTP 5xx responses count as failures; any other response shows that the endpoint
+ * is up.
+ */
+public final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final String PREFIX = CircuitBreaker.class.getName();
+
+    /**
+     * The number of consecutive failures that opens the circuit.
+     */
+    private static final int FAILURE_THRESHOLD = Math.max(1, Integer.getInteger(PREFIX + ".failureThreshold", 3));
+
+    /**
+     * The initial time the circuit stays open.
+     */
+    private static final long BASE_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Math.max(1, Integer.getInteger(PREFIX + ".openSeconds", 10)));
+
+    /**
+     * The maximum time the circuit stays open.
+     */
+    private static final long MAX_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Math.max(1, Integer.getInteger(PREFIX + ".maxOpenSeconds", 300)));
+
+    /**
+     * How long a probe is allowed to be outstanding before another one may be tried.
+     */
+    private static final long PROBE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final List<CircuitBreaker> ALL = Collections.synchronizedList(new ArrayList<CircuitBreaker>());
+
+    public static final CircuitBreaker USER_KEYS_USING_AUTH = new CircuitBreaker("/user/keys_using_auth");
+
+    public static final CircuitBreaker USER_PROFILE = new CircuitBreaker("/user/profile");
+
+    public static final CircuitBreaker ACCOUNT_NAMES = new CircuitBreaker("/account/names");
+
+    public static final CircuitBreaker ACCOUNT_SERVICE_STATUS = new CircuitBreaker("/account/service_status");
+
+    public static final CircuitBreaker ACCOUNT_HEALTH_STATUS = new CircuitBreaker("/api/account/health_status");
+
+    /**
+     * The states of a circuit.
+     */
+    public static enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+
+    private final Random random = new Random();
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private int consecutiveOpens;
+
+    private long openUntil;
+
+    private long probeStarted;
+
+    private CircuitBreaker(String endpoint) {
+        this.endpoint = endpoint;
+        ALL.add(this);
+    }
+
+    /**
+     * Returns all the circuit breakers.
+     *
+     * @return all the circuit breakers.
+     */
+    public static List<CircuitBreaker> all() {
+        synchronized (ALL) {
+            return new ArrayList<CircuitBreaker>(ALL);
+        }
+    }
+
+    /**
+     * Returns the longest time any of the given circuits will stay open.
+     *
+     * @param breakers the circuits of the endpoints the caller depends on.
+     * @return the longest time in milliseconds, {@code 0} if all those circuits are closed.
+     */
+    public static long maxRetryAfterMillis(CircuitBreaker... breakers) {
+        long result = 0;
+        for (CircuitBreaker breaker : breakers) {
+            result = Math.max(result, breaker.getRetryAfterMillis());
+        }
+        return result;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how long until the circuit lets a probe through.
+     *
+     * @return the time in milliseconds, {@code 0} if requests are allowed.
+     */
+    public synchronized long getRetryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Checks that a request may be sent to the endpoint. Every request that is let through must be followed by a
+     * call to one of {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbandoned()}.
+     *
+     * @throws CircuitBreakerOpenException if the circuit is open.
+     */
+    public synchronized void checkAllowed() throws CircuitBreakerOpenException {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return;
+            case OPEN:
+                if (now >= openUntil) {
+                    state = State.HALF_OPEN;
+                    probeStarted = now;
+                    LOGGER.log(Level.FINE, "Probing {0}", endpoint);
+                    return;
+                }
+                break;
+            case HALF_OPEN:
+                if (now >= probeStarted + PROBE_TIMEOUT_MILLIS) {
+                    // the previous probe never reported back
+                    probeStarted = now;
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new CircuitBreakerOpenException(endpoint, Math.max(0, openUntil - now));
+    }
+
+    /**
+     * Records a request that reached the endpoint.
+     */
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "{0} is reachable again", endpoint);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        consecutiveOpens = 0;
+    }
+
+    /**
+     * Records a request that failed to reach the endpoint.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD)) {
+            long delay = Math.min(MAX_OPEN_MILLIS, BASE_OPEN_MILLIS << Math.min(consecutiveOpens, 10));
+            // spread the probes from the different endpoints and controllers
+            delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+            consecutiveOpens++;
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + delay;
+            LOGGER.log(Level.WARNING, "{0} is unreachable, failing fast for the next {1}s",
+                    new Object[]{endpoint, TimeUnit.MILLISECONDS.toSeconds(delay)});
+        }
+    }
+
+    /**
+     * Records a request that never reached the endpoint, either because it could not be sent or because it was
+     * cancelled. It says nothing about the endpoint, but a probe that is abandoned lets the next request probe.
+     */
+    public synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            probeStarted = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + endpoint + ", " + state + ", failures=" + consecutiveFailures + '}';
+    }
+}
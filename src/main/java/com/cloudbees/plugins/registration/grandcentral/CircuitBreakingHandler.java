@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.registration.grandcentral;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class for the handlers that report the outcome of their requests to a {@link CircuitBreaker}. Each request
+ * reports exactly one outcome, so a handler instance must not be reused.
+ *
+ * @param <T> the type of the parsed response.
+ */
+public abstract class CircuitBreakingHandler<T> extends AsyncCompletionHandler<T> {
+
+    private final CircuitBreaker breaker;
+
+    /**
+     * Set once the outcome of the request has been reported to the {@link #breaker}.
+     */
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    protected CircuitBreakingHandler(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Sends a request through the circuit breaker of the handler.
+     *
+     * @param client  the client to make the request with.
+     * @param request the request.
+     * @param handler the handler for the response.
+     * @param <R>     the type of the parsed response.
+     * @return the future response.
+     * @throws IOException if the request could not be sent or the circuit is open.
+     */
+    protected static <R> ListenableFuture<R> execute(AsyncHttpClient client, Request request,
+                                                     CircuitBreakingHandler<R> handler) throws IOException {
+        handler.breaker.checkAllowed();
+        try {
+            return client.executeRequest(request, handler);
+        } catch (IOException e) {
+            // refused locally (e.g. too many connections), the endpoint was never asked
+            handler.abandon();
+            throw e;
+        } catch (RuntimeException e) {
+            handler.abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final T onCompleted(Response response) throws Exception {
+        if (reported.compareAndSet(false, true)) {
+            if (response.getStatusCode() >= 500) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+        }
+        // the endpoint answered, failing to parse the answer is not an outage
+        return onResponse(response);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onThrowable(Throwable t) {
+        if (t instanceof CancellationException) {
+            // a request we gave up on says nothing about the endpoint
+            abandon();
+        } else if (reported.compareAndSet(false, true)) {
+            breaker.onFailure();
+        }
+        super.onThrowable(t);
+    }
+
+    private void abandon() {
+        if (reported.compareAndSet(false, true)) {
+            breaker.onAbandoned();
+        }
+    }
+
+    /**
+     * Parses the response.
+     *
+     * @param response the response.
+     * @return the parsed response.
+     * @throws Exception if the response is not the expected one.
+     */
+    protected abstract T onResponse(Response response) throws Exception;
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration.grandcentral;
+
+import com.google.common.cache.CacheBuilder;
+import com.ning.http.client.Response;
+import hudson.Util;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last parsed response of an endpoint for each request key, together with a digest of its body, so
+ * that an identical response can be answered with the value parsed last time instead of being parsed again.
+ *
+ * <p>
+ * The Grand Central endpoints are {@code POST}s, so conditional requests ({@code If-None-Match}) do not apply and
+ * the digest of the body is what tells whether anything changed.
+ *
+ * @param <T> the type of the parsed response, which must be immutable.
+ */
+final class ResponseMemo<T> {
+
+    /**
+     * The maximum number of request keys remembered per endpoint.
+     */
+    private static final int MAX_ENTRIES = 1024;
+
+    private final ConcurrentMap<String, Entry<T>> entries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .<String, Entry<T>>build()
+            .asMap();
+
+    /**
+     * Returns the value parsed from an identical response last time.
+     *
+     * @param key    the request key.
+     * @param digest the digest of the body of the response.
+     * @return the value or {@code null} if the response has not been seen for this key.
+     */
+    T unchanged(String key, String digest) {
+        if (key == null) {
+            return null;
+        }
+        Entry<T> entry = entries.get(key);
+        return entry != null && entry.digest.equals(digest) ? entry.value : null;
+    }
+
+    /**
+     * Remembers the value parsed from a response.
+     *
+     * @param key    the request key.
+     * @param digest the digest of the body of the response.
+     * @param value  the parsed value.
+     * @return the value.
+     */
+    T remember(String key, String digest, T value) {
+        if (key != null) {
+            entries.put(key, new Entry<T>(digest, value));
+        }
+        return value;
+    }
+
+    /**
+     * Computes the digest of the body of a response.
+     *
+     * @param response the response.
+     * @return the digest.
+     * @throws IOException if the body could not be read.
+     */
+    static String digest(Response response) throws IOException {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(response.getResponseBodyAsBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory algorithm", e);
+        }
+    }
+
+    private static final class Entry<T> {
+        private final String digest;
+        private final T value;
+
+        private Entry(String digest, T value) {
+            this.digest = digest;
+            this.value = value;
+        }
+    }
+}
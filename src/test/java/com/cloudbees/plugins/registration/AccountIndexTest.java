@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import hudson.model.ItemGroup;
+import hudson.security.ACL;
+import org.acegisecurity.Authentication;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AccountIndexTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @After
+    public void clearStore() {
+        OtherStore.credentials.clear();
+    }
+
+    @Test
+    public void credentialsOfOtherStoresAreRevalidated() {
+        CloudBeesUser user = user("acme");
+        OtherStore.credentials.add(user);
+        AccountIndex.invalidate();
+        assertEquals(Arrays.asList("acme"), AccountIndex.getAccountNames(ACL.SYSTEM));
+        assertEquals(user, AccountIndex.findUser("acme", ACL.SYSTEM));
+
+        long generation = AccountIndex.getGeneration();
+        OtherStore.credentials.clear();
+        AccountIndex.revalidate();
+        assertEquals(Collections.<String>emptyList(), AccountIndex.getAccountNames(ACL.SYSTEM));
+        assertEquals(null, AccountIndex.findUser("acme", ACL.SYSTEM));
+        assertEquals(generation + 1, AccountIndex.getGeneration());
+    }
+
+    @Test
+    public void unchangedCredentialsKeepTheGeneration() {
+        OtherStore.credentials.add(user("acme"));
+        AccountIndex.invalidate();
+        assertEquals(Arrays.asList("acme"), AccountIndex.getAccountNames(ACL.SYSTEM));
+
+        long generation = AccountIndex.getGeneration();
+        AccountIndex.revalidate();
+        assertEquals(Arrays.asList("acme"), AccountIndex.getAccountNames(ACL.SYSTEM));
+        assertEquals(generation, AccountIndex.getGeneration());
+    }
+
+    private static CloudBeesUser user(String accountName) {
+        CloudBeesAccount account = mock(CloudBeesAccount.class);
+        when(account.getName()).thenReturn(accountName);
+        CloudBeesUser user = mock(CloudBeesUser.class);
+        when(user.getAccounts()).thenReturn(Arrays.asList(account));
+        return user;
+    }
+
+    /**
+     * A credentials provider other than the system one, which does not tell anyone when its credentials change.
+     */
+    @TestExtension
+    public static class OtherStore extends CredentialsProvider {
+        static final List<CloudBeesUser> credentials = new CopyOnWriteArrayList<CloudBeesUser>();
+
+        @Override
+        public <C extends Credentials> List<C> getCredentials(Class<C> type, ItemGroup itemGroup,
+                                                              Authentication authentication) {
+            List<C> result = new ArrayList<C>();
+            for (CloudBeesUser user : credentials) {
+                if (type.isInstance(user)) {
+                    result.add(type.cast(user));
+                }
+            }
+            return result;
+        }
+    }
+}
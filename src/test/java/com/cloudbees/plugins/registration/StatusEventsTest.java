@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StatusEventsTest {
+
+    @Test
+    public void idsOfThisJvmRoundTrip() {
+        StatusEvents.publish("acme");
+        long sequence = StatusEvents.getSequence();
+        assertEquals(sequence, StatusEvents.fromId(StatusEvents.toId(sequence)));
+        assertEquals(sequence - 1, StatusEvents.fromId(StatusEvents.toId(sequence - 1)));
+    }
+
+    @Test
+    public void idsOfAnotherJvmAreAReset() {
+        assertEquals(-1, StatusEvents.fromId("0-42"));
+        // before the IDs carried an epoch
+        assertEquals(-1, StatusEvents.fromId("42"));
+        assertEquals(-1, StatusEvents.fromId("garbage"));
+        assertEquals(-1, StatusEvents.fromId(StatusEvents.toId(StatusEvents.getSequence() + 1000)));
+    }
+
+    @Test
+    public void reconnectAfterRestartGetsEverythingAtOnce() throws Exception {
+        StatusEvents.publish("acme");
+        // a browser that saw many more events before the restart than this JVM has had so far
+        long last = StatusEvents.fromId("0-" + (StatusEvents.getSequence() + 1000));
+        long start = System.currentTimeMillis();
+        List<StatusEvents.Event> events = StatusEvents.await(last, 10000);
+        // told straight away rather than held until the sequence catches up
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getAccountName());
+        assertEquals(StatusEvents.getSequence(), events.get(0).getSequence());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CloudBees.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.registration.grandcentral;
+
+import com.cloudbees.plugins.registration.CloudBeesWidget;
+import com.ning.http.client.AsyncHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the health status queries against a stub of the DEV@cloud provider.
+ */
+public class ApiAccountHealthStatusHandlerTest {
+
+    private HttpServer server;
+
+    private AsyncHttpClient client;
+
+    private final List<JSONObject> requests = new ArrayList<JSONObject>();
+
+    private volatile int status = 200;
+
+    private volatile String body;
+
+    @Before
+    public void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/account/health_status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                JSONObject request = JSONObject.fromObject(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+                synchronized (requests) {
+                    requests.add(request);
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        System.setProperty("dsp.url", "http://127.0.0.1:" + server.getAddress().getPort());
+        client = new AsyncHttpClient();
+    }
+
+    @After
+    public void stopStub() {
+        System.clearProperty("dsp.url");
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void remainingMinutesBecomeStatusLines() throws Exception {
+        body = "{\"remaining_minutes\":{\"linux\":42}}";
+        List<CloudBeesWidget.StatusLine> lines = ApiAccountHealthStatusHandler.executeRequest(client,
+                ApiAccountHealthStatusHandler.Authentication.UID, "uid-1", "acme").get(10, TimeUnit.SECONDS);
+        assertEquals(1, lines.size());
+        assertEquals("build.linux", lines.get(0).getMessageKey());
+        assertEquals(42L, lines.get(0).getValue());
+        assertEquals(1, requests.size());
+        assertEquals("uid-1", requests.get(0).getString("uid"));
+        assertEquals("acme", requests.get(0).getString("account"));
+    }
+
+    @Test
+    public void eachAccountIsQueriedOnItsOwn() throws Exception {
+        body = "{}";
+        List<Future<List<CloudBeesWidget.StatusLine>>> futures =
+                new ArrayList<Future<List<CloudBeesWidget.StatusLine>>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(ApiAccountHealthStatusHandler.executeRequest(client,
+                    ApiAccountHealthStatusHandler.Authentication.ACCOUNT_API_KEY, "key", "account-" + i));
+        }
+        for (Future<List<CloudBeesWidget.StatusLine>> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS).isEmpty());
+        }
+        assertEquals(5, requests.size());
+        for (JSONObject request : requests) {
+            assertEquals("key", request.getString("acc_api_key"));
+        }
+    }
+
+    @Test
+    public void serverErrorsFailTheQuery() throws Exception {
+        status = 503;
+        body = "down for maintenance";
+        try {
+            ApiAccountHealthStatusHandler.executeRequest(client,
+                    ApiAccountHealthStatusHandler.Authentication.UID, "uid-1", "acme").get(10, TimeUnit.SECONDS);
+            fail("expected the query to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage().startsWith("HTTP 503"));
+        } finally {
+            CircuitBreaker.ACCOUNT_HEALTH_STATUS.onSuccess();
+        }
+    }
+}